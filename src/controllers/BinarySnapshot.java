@@ -0,0 +1,174 @@
+package controllers;
+
+import models.SmartBand;
+import models.SmartWatch;
+import models.WearableDevice;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Reads and writes WearableDevices in a compact, versioned binary format.
+ * <p>
+ * A snapshot is a header (the magic number, a version byte and the number of devices) followed by one record
+ * per device. Each record is a type tag byte, the size, manufacturer name, material, model name and ID as
+ * length-prefixed UTF-8 strings, and the price as a long number of cents. A SmartBand record ends with a flags
+ * byte whose lowest bit is the heart rate monitor; a SmartWatch record ends with its display type, as a string
+ * like the others.
+ */
+final class BinarySnapshot {
+
+    // "WDSB" - chosen so it can never be mistaken for the start of an XML file
+    static final int MAGIC = 0x57445342;
+    static final byte VERSION = 1;
+
+    private static final byte SMART_BAND_TAG = 1;
+    private static final byte SMART_WATCH_TAG = 2;
+    private static final int HEART_RATE_MONITOR_FLAG = 1;
+
+    // String lengths are written as an unsigned short, with the largest value reserved for null
+    private static final int NULL_STRING = 0xFFFF;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private BinarySnapshot() {
+    }
+
+    /**
+     * Reads the magic number a binary file format starts with.
+     *
+     * @param file the file to read.
+     * @return the first four bytes of the file as an int, or 0 if the file is shorter than that.
+     * @throws IOException if the file cannot be read.
+     */
+    static int readMagic(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            while (magic.hasRemaining()) {
+                if (channel.read(magic) < 0) {
+                    return 0;
+                }
+            }
+            return magic.getInt(0);
+        }
+    }
+
+    /**
+     * Writes the WearableDevices to the file as a binary snapshot, replacing anything already in it.
+     *
+     * @param file the file to write to.
+     * @param wearableDevices the WearableDevices to write.
+     * @throws IOException if the file cannot be written.
+     */
+    static void write(File file, List<WearableDevice> wearableDevices) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(wearableDevices.size());
+            for (WearableDevice techDev : wearableDevices) {
+                writeDevice(out, techDev);
+            }
+        }
+    }
+
+    /**
+     * Reads a binary snapshot from the file.
+     *
+     * @param file the file to read.
+     * @param into the list to add the WearableDevices to, in the order they were written.
+     * @throws IOException if the file cannot be read, or is not a binary snapshot this version understands.
+     */
+    static void read(File file, List<WearableDevice> into) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file.getName() + " is not a binary snapshot");
+            }
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary snapshot version " + version + " in " + file.getName());
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                into.add(readDevice(in));
+            }
+        }
+    }
+
+    /**
+     * Writes a single WearableDevice record.
+     *
+     * @param out the output to write to.
+     * @param techDev the WearableDevice to write.
+     * @throws IOException if the record cannot be written.
+     */
+    static void writeDevice(DataOutput out, WearableDevice techDev) throws IOException {
+        out.writeByte(techDev instanceof SmartBand ? SMART_BAND_TAG : SMART_WATCH_TAG);
+        writeString(out, techDev.getSize());
+        writeString(out, techDev.getManufacturerName());
+        writeString(out, techDev.getMaterial());
+        writeString(out, techDev.getModelName());
+        writeString(out, techDev.getId());
+        out.writeLong(techDev.getPriceCents());
+        if (techDev instanceof SmartBand smartBand) {
+            out.writeByte(smartBand.isHeartRateMonitor() ? HEART_RATE_MONITOR_FLAG : 0);
+        } else if (techDev instanceof SmartWatch smartWatch) {
+            writeString(out, smartWatch.getDisplayType());
+        }
+    }
+
+    /**
+     * Reads a single WearableDevice record. Devices are built through their constructors, so they are
+     * validated in the same way as devices added through the menus.
+     *
+     * @param in the input to read from.
+     * @return the WearableDevice read.
+     * @throws IOException if the record cannot be read or has an unknown type tag.
+     */
+    static WearableDevice readDevice(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        String size = readString(in);
+        String manufacturerName = readString(in);
+        String material = readString(in);
+        String modelName = readString(in);
+        String id = readString(in);
+        // Every whole number of cents converts to a double that converts back to the same cents
+        double price = in.readLong() / 100.0;
+        return switch (tag) {
+            case SMART_BAND_TAG -> new SmartBand(size, price, manufacturerName, material, modelName, id,
+                    (in.readByte() & HEART_RATE_MONITOR_FLAG) != 0);
+            case SMART_WATCH_TAG -> new SmartWatch(size, price, manufacturerName, material, modelName, id,
+                    readString(in));
+            default -> throw new IOException("Unknown device type tag " + tag);
+        };
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeShort(NULL_STRING);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= NULL_STRING) {
+            throw new IOException("String too long for a binary snapshot: " + bytes.length + " bytes");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readUnsignedShort();
+        if (length == NULL_STRING) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
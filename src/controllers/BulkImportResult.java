@@ -0,0 +1,110 @@
+package controllers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The outcome of a bulk import: how many WearableDevices were added, and which rows were rejected and why.
+ */
+public final class BulkImportResult {
+    private int importedCount;
+    private final List<Reject> rejects = new ArrayList<>();
+
+    BulkImportResult() {
+    }
+
+    /**
+     * A row that was not imported.
+     */
+    public static final class Reject {
+        private final int row;
+        private final String id;
+        private final String reason;
+
+        Reject(int row, String id, String reason) {
+            this.row = row;
+            this.id = id;
+            this.reason = reason;
+        }
+
+        /**
+         * Gets the row that was rejected: the line number for a CSV import, the position of the device in the
+         * file for an XML import, or the position in the collection for addAll().
+         *
+         * @return the row number, counting from 1.
+         */
+        public int getRow() {
+            return row;
+        }
+
+        /**
+         * Gets the ID of the rejected device, if it got far enough to have one.
+         *
+         * @return the ID, or null if the row could not be read.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Gets the reason the row was rejected.
+         *
+         * @return the reason.
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "Row " + row + (id == null ? "" : " (ID " + id + ")") + ": " + reason;
+        }
+    }
+
+    /**
+     * Gets the number of WearableDevices that were added.
+     *
+     * @return the number of WearableDevices added.
+     */
+    public int getImportedCount() {
+        return importedCount;
+    }
+
+    /**
+     * Gets the number of rows that were rejected.
+     *
+     * @return the number of rejected rows.
+     */
+    public int getRejectedCount() {
+        return rejects.size();
+    }
+
+    /**
+     * Gets the rejected rows, in row order.
+     *
+     * @return an unmodifiable list of the rejected rows.
+     */
+    public List<Reject> getRejects() {
+        return Collections.unmodifiableList(rejects);
+    }
+
+    void imported() {
+        importedCount++;
+    }
+
+    void reject(int row, String id, String reason) {
+        rejects.add(new Reject(row, id, reason));
+    }
+
+    // Rows rejected while reading are recorded before those rejected when the batch is added
+    void sortRejects() {
+        rejects.sort(Comparator.comparingInt(Reject::getRow));
+    }
+
+    @Override
+    public String toString() {
+        return importedCount + " imported, " + rejects.size() + " rejected";
+    }
+}
@@ -0,0 +1,52 @@
+package controllers;
+
+import models.WearableDevice;
+
+import java.util.List;
+
+/**
+ * An immutable view of the WearableDevices in a WearableDeviceAPI, as they were at one version of the list.
+ * <p>
+ * A snapshot never changes once taken, so it can be iterated for as long as needed (by a long-running report or
+ * a save, for example) while the API carries on being changed, without locking and without risking a
+ * ConcurrentModificationException. Snapshots share the WearableDevice objects themselves with the API, but the API
+ * never changes a device in the list in place: an update swaps a changed copy in instead, so the devices in a
+ * snapshot keep the details they had when it was taken, and can be read without any lock.
+ */
+public final class CatalogueSnapshot {
+    private final long version;
+    private final List<WearableDevice> wearableDevices;
+
+    CatalogueSnapshot(long version, List<WearableDevice> wearableDevices) {
+        this.version = version;
+        this.wearableDevices = wearableDevices;
+    }
+
+    /**
+     * Gets the version of the list this snapshot was taken at. Every change made through the API increases the
+     * version, so two snapshots with the same version hold the same WearableDevices in the same order.
+     *
+     * @return the version of the list.
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Gets the WearableDevices in the snapshot, in list order.
+     *
+     * @return an unmodifiable list of the WearableDevices.
+     */
+    public List<WearableDevice> wearableDevices() {
+        return wearableDevices;
+    }
+
+    /**
+     * Gets the number of WearableDevices in the snapshot.
+     *
+     * @return the number of WearableDevices.
+     */
+    public int size() {
+        return wearableDevices.size();
+    }
+}
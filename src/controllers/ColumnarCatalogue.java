@@ -0,0 +1,293 @@
+package controllers;
+
+import models.SmartBand;
+import models.SmartWatch;
+import models.WearableDevice;
+import utils.DisplayTypeUtility;
+import utils.Utilities;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A column-oriented copy of the fields scans and aggregations filter on, kept in step with the list.
+ * <p>
+ * Row i holds the device at position i in the list. Prices are kept in cents in a long[], manufacturer names and sizes
+ * are dictionary encoded as int codes (ignoring case), display types are stored as their DisplayTypeUtility
+ * ordinal and the heart rate monitor flags are kept in a BitSet. Filters and aggregations run as tight loops
+ * over these arrays instead of following a pointer to every WearableDevice. The columns hold no references to the
+ * devices themselves: filters return the matching rows, and only those are looked up in the list.
+ * <p>
+ * The list's mutations make the same change to the rows, so adding, updating or deleting a device costs no more
+ * than it does in the list itself rather than a rebuild of every column. Dictionary codes are never reused, so a
+ * name that is no longer in the list only leaves an unused entry behind.
+ */
+final class ColumnarCatalogue {
+    private static final int NO_DISPLAY_TYPE = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private int rowCount;
+    private long[] priceCents;
+    private int[] manufacturerCodes;
+    private final Map<String, Integer> manufacturerDictionary = new HashMap<>();
+    private int[] sizeCodes;
+    private final Map<String, Integer> sizeDictionary = new HashMap<>();
+    private int[] displayTypeCodes;
+    private final BitSet heartRateMonitors = new BitSet();
+
+    private ColumnarCatalogue(int capacity) {
+        capacity = Math.max(capacity, MIN_CAPACITY);
+        priceCents = new long[capacity];
+        manufacturerCodes = new int[capacity];
+        sizeCodes = new int[capacity];
+        displayTypeCodes = new int[capacity];
+    }
+
+    /**
+     * Builds the columns for a list.
+     *
+     * @param wearableDevices the list, which must not change while the columns are built.
+     * @return the columns.
+     */
+    static ColumnarCatalogue of(List<WearableDevice> wearableDevices) {
+        ColumnarCatalogue columns = new ColumnarCatalogue(wearableDevices.size());
+        for (WearableDevice techDev : wearableDevices) {
+            columns.add(techDev);
+        }
+        return columns;
+    }
+
+    /**
+     * Adds a row for a device added to the end of the list.
+     *
+     * @param techDev the WearableDevice added.
+     */
+    void add(WearableDevice techDev) {
+        if (rowCount == priceCents.length) {
+            grow();
+        }
+        set(rowCount++, techDev);
+    }
+
+    /**
+     * Replaces a row, for a device that has replaced another at the same position in the list.
+     *
+     * @param row the position of the device in the list.
+     * @param techDev the WearableDevice now at that position.
+     */
+    void set(int row, WearableDevice techDev) {
+        priceCents[row] = techDev.getPriceCents();
+        manufacturerCodes[row] = encode(manufacturerDictionary, techDev.getManufacturerName());
+        sizeCodes[row] = encode(sizeDictionary, techDev.getSize());
+        displayTypeCodes[row] = techDev instanceof SmartWatch smartWatch
+                ? DisplayTypeUtility.ordinalOf(smartWatch.getDisplayType()) : NO_DISPLAY_TYPE;
+        heartRateMonitors.set(row, techDev instanceof SmartBand smartBand && smartBand.isHeartRateMonitor());
+    }
+
+    /**
+     * Removes a row, moving the rows after it up by one as the list does.
+     *
+     * @param row the position of the device removed from the list.
+     */
+    void remove(int row) {
+        int moved = rowCount - row - 1;
+        System.arraycopy(priceCents, row + 1, priceCents, row, moved);
+        System.arraycopy(manufacturerCodes, row + 1, manufacturerCodes, row, moved);
+        System.arraycopy(sizeCodes, row + 1, sizeCodes, row, moved);
+        System.arraycopy(displayTypeCodes, row + 1, displayTypeCodes, row, moved);
+        BitSet after = heartRateMonitors.get(row + 1, rowCount);
+        heartRateMonitors.clear(row, rowCount);
+        for (int bit = after.nextSetBit(0); bit >= 0; bit = after.nextSetBit(bit + 1)) {
+            heartRateMonitors.set(row + bit);
+        }
+        rowCount--;
+    }
+
+    /**
+     * Removes several rows in one pass, keeping the others in order as the list does.
+     *
+     * @param rows the positions of the devices removed from the list.
+     */
+    void removeAll(BitSet rows) {
+        int kept = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (rows.get(row)) {
+                continue;
+            }
+            if (kept != row) {
+                priceCents[kept] = priceCents[row];
+                manufacturerCodes[kept] = manufacturerCodes[row];
+                sizeCodes[kept] = sizeCodes[row];
+                displayTypeCodes[kept] = displayTypeCodes[row];
+                heartRateMonitors.set(kept, heartRateMonitors.get(row));
+            }
+            kept++;
+        }
+        heartRateMonitors.clear(kept, rowCount);
+        rowCount = kept;
+    }
+
+    BitSet rowsAbovePrice(double price) {
+        long cents = Utilities.centsAtMost(price);
+        BitSet rows = new BitSet(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            if (priceCents[row] > cents) {
+                rows.set(row);
+            }
+        }
+        return rows;
+    }
+
+    BitSet rowsBelowPrice(double price) {
+        long cents = Utilities.centsAtLeast(price);
+        BitSet rows = new BitSet(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            if (priceCents[row] < cents) {
+                rows.set(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Finds the SmartWatches with a display type, ignoring case.
+     *
+     * @param displayType the display type to find.
+     * @return the rows of the matching SmartWatches.
+     */
+    BitSet rowsWithDisplayType(String displayType) {
+        BitSet rows = new BitSet(rowCount);
+        int code = DisplayTypeUtility.ordinalOf(displayType);
+        if (code < 0) {
+            return rows;
+        }
+        for (int row = 0; row < rowCount; row++) {
+            if (displayTypeCodes[row] == code) {
+                rows.set(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Finds the SmartBands with a heart rate monitor.
+     *
+     * @return the rows of the matching SmartBands.
+     */
+    BitSet rowsWithHeartRateMonitor() {
+        return (BitSet) heartRateMonitors.clone();
+    }
+
+    int countWithSize(String size) {
+        return countCode(sizeCodes, rowCount, sizeDictionary.get(key(size)));
+    }
+
+    int countWithDisplayType(String displayType) {
+        return rowsWithDisplayType(displayType).cardinality();
+    }
+
+    int countWithHeartRateMonitor() {
+        return heartRateMonitors.cardinality();
+    }
+
+    /**
+     * Averages the prices of every row.
+     *
+     * @return the average price, or 0 if there are no rows.
+     */
+    double averagePrice() {
+        PriceTotal total = new PriceTotal();
+        for (int row = 0; row < rowCount; row++) {
+            total.add(priceCents[row]);
+        }
+        return rowCount == 0 ? 0 : total.average(rowCount);
+    }
+
+    /**
+     * Averages the prices of the rows from one manufacturer.
+     *
+     * @param manufacturerName the manufacturer name, ignoring case.
+     * @return the average price, or 0 if there are no devices from the manufacturer.
+     */
+    double averagePriceOfManufacturer(String manufacturerName) {
+        Integer manufacturerCode = manufacturerDictionary.get(key(manufacturerName));
+        if (manufacturerCode == null) {
+            return 0;
+        }
+        int code = manufacturerCode;
+        PriceTotal total = new PriceTotal();
+        int count = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (manufacturerCodes[row] == code) {
+                total.add(priceCents[row]);
+                count++;
+            }
+        }
+        return count == 0 ? 0 : total.average(count);
+    }
+
+    /**
+     * A running total of prices in cents. Prices are at most Utilities.MAX_CENTS, so a long only holds the total of
+     * Long.MAX_VALUE / MAX_CENTS (9,223) devices at the highest price; past that the total carries on in a
+     * BigInteger rather than overflowing. It is only rounded once, when the average is turned back into euro.
+     */
+    private static final class PriceTotal {
+        private long cents;
+        private BigInteger overflow = BigInteger.ZERO;
+
+        void add(long priceCents) {
+            try {
+                cents = Math.addExact(cents, priceCents);
+            } catch (ArithmeticException e) {
+                overflow = overflow.add(BigInteger.valueOf(cents));
+                cents = priceCents;
+            }
+        }
+
+        double average(int count) {
+            if (overflow.signum() == 0) {
+                return (double) cents / count / 100.0;
+            }
+            BigDecimal total = new BigDecimal(overflow.add(BigInteger.valueOf(cents)));
+            return total.divide(BigDecimal.valueOf(count * 100L), MathContext.DECIMAL64).doubleValue();
+        }
+    }
+
+    private static int countCode(int[] codes, int rows, Integer valueCode) {
+        if (valueCode == null) {
+            return 0;
+        }
+        int code = valueCode;
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            if (codes[row] == code) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void grow() {
+        int capacity = priceCents.length * 2;
+        priceCents = Arrays.copyOf(priceCents, capacity);
+        manufacturerCodes = Arrays.copyOf(manufacturerCodes, capacity);
+        sizeCodes = Arrays.copyOf(sizeCodes, capacity);
+        displayTypeCodes = Arrays.copyOf(displayTypeCodes, capacity);
+    }
+
+    private static int encode(Map<String, Integer> dictionary, String value) {
+        return dictionary.computeIfAbsent(key(value), key -> dictionary.size());
+    }
+
+    // Null values share a code of their own
+    private static String key(String value) {
+        return value == null ? "\0" : value.toUpperCase(Locale.ROOT);
+    }
+}
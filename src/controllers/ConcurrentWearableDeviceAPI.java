@@ -0,0 +1,612 @@
+package controllers;
+
+import models.SmartBand;
+import models.SmartWatch;
+import models.WearableDevice;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A WearableDeviceAPI that can be shared between threads, e.g. behind a multi-threaded server.
+ * <p>
+ * Lookups, counts, listings, searches and saves share a read lock, so any number of them run in parallel;
+ * adds, updates, deletes, sorts and loads take the write lock and run one at a time. The lock is reentrant,
+ * because WearableDeviceAPI's methods call one another, which a StampedLock would deadlock on.
+ * <p>
+ * Streaming reports and saves only hold the read lock long enough to take a snapshot of the list, then write
+ * from the snapshot without blocking writers. With journaling enabled, a save also rotates the journal while it
+ * holds the read lock, so changes made while the snapshot is written go to a fresh journal segment. Updates swap a changed copy of a device into the list rather than
+ * changing it, so the devices being written never change underneath them; for the same reason, devices handed out
+ * by the API should be treated as read-only and changed through the update methods.
+ * <p>
+ * The API can also save itself in the background: once startAutosave() has been called, a scheduled thread saves
+ * whenever the list has changed since the last save. However many changes are made between two runs, they are
+ * written in a single save, and because each run is scheduled a fixed delay after the previous one finishes, saves
+ * can never queue up behind a slow disk. Journal compaction is never done by the change that pushes the journal
+ * past its threshold, which holds the write lock: it is handed to the autosave thread while autosave is running,
+ * and to the common fork/join pool otherwise.
+ */
+public class ConcurrentWearableDeviceAPI extends WearableDeviceAPI {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Saves only need to read the devices, but two saves mustn't write the same file at once. Taken before the
+    // read/write lock, never while holding it, so a slow save doesn't keep writers waiting for the read lock.
+    private final Lock saveLock = new ReentrantLock();
+
+    // The version of the last snapshot written to the file, only changed while holding saveLock
+    private volatile long savedVersion;
+
+    // Background saving; autosaveExecutor is only changed while synchronized on this API
+    private volatile ScheduledExecutorService autosaveExecutor;
+    private final AtomicBoolean saveRequested = new AtomicBoolean();
+    private final AtomicBoolean compactionRequested = new AtomicBoolean();
+    private volatile Exception lastAutosaveFailure;
+
+    /**
+     * Constructs a ConcurrentWearableDeviceAPI with an empty list of WearableDevices that persists data to
+     * wearabledevices.xml.
+     */
+    public ConcurrentWearableDeviceAPI() {
+        super();
+    }
+
+    /**
+     * Constructs a ConcurrentWearableDeviceAPI with an empty list of WearableDevices that persists data to the
+     * given file.
+     *
+     * @param file the file to load from and save to.
+     */
+    public ConcurrentWearableDeviceAPI(File file) {
+        super(file);
+    }
+
+    // Add/create methods
+
+    @Override
+    public boolean addWearableDeviceDevice(WearableDevice wearableDevice) {
+        return writeLocked(() -> super.addWearableDeviceDevice(wearableDevice));
+    }
+
+    // Imports hand their devices over a chunk at a time, so the lock is held while a chunk is added, never while
+    // the input is read
+    @Override
+    void addBatch(ImportBatch batch) {
+        writeLocked(() -> {
+            super.addBatch(batch);
+            return null;
+        });
+    }
+
+    // Delete methods
+
+    @Override
+    public WearableDevice deleteWearableDeviceByIndex(int index) {
+        return writeLocked(() -> super.deleteWearableDeviceByIndex(index));
+    }
+
+    @Override
+    public WearableDevice deleteWearableDeviceById(String id) {
+        return writeLocked(() -> super.deleteWearableDeviceById(id));
+    }
+
+    @Override
+    public List<WearableDevice> deleteWearableDevicesIf(Predicate<WearableDevice> filter) {
+        return writeLocked(() -> super.deleteWearableDevicesIf(filter));
+    }
+
+    // Get methods
+
+    @Override
+    public WearableDevice getWearableDeviceByIndex(int index) {
+        return readLocked(() -> super.getWearableDeviceByIndex(index));
+    }
+
+    @Override
+    public WearableDevice getWearableDeviceById(String id) {
+        return readLocked(() -> super.getWearableDeviceById(id));
+    }
+
+    @Override
+    public List<WearableDevice> page(int offset, int limit) {
+        return readLocked(() -> super.page(offset, limit));
+    }
+
+    @Override
+    public DevicePage pageAfter(String cursor, int limit) {
+        return readLocked(() -> super.pageAfter(cursor, limit));
+    }
+
+    @Override
+    public SnapshotFormat getSnapshotFormat() {
+        return readLocked(super::getSnapshotFormat);
+    }
+
+    @Override
+    public void setSnapshotFormat(SnapshotFormat snapshotFormat) {
+        writeLocked(() -> {
+            super.setSnapshotFormat(snapshotFormat);
+            return null;
+        });
+    }
+
+    @Override
+    public int getShardCount() {
+        return readLocked(super::getShardCount);
+    }
+
+    @Override
+    public void setShardCount(int shardCount) {
+        writeLocked(() -> {
+            super.setShardCount(shardCount);
+            return null;
+        });
+    }
+
+    // Read/reporting/list methods
+
+    @Override
+    public String listAllWearableDevices() {
+        return readLocked(super::listAllWearableDevices);
+    }
+
+    @Override
+    public String listAllSmartBands() {
+        return readLocked(super::listAllSmartBands);
+    }
+
+    @Override
+    public String listAllSmartWatches() {
+        return readLocked(super::listAllSmartWatches);
+    }
+
+    @Override
+    public String listAllWearableDeviceAbovePrice(double price) {
+        return readLocked(() -> super.listAllWearableDeviceAbovePrice(price));
+    }
+
+    @Override
+    public String listAllWearableDeviceBelowPrice(double price) {
+        return readLocked(() -> super.listAllWearableDeviceBelowPrice(price));
+    }
+
+    @Override
+    public List<WearableDevice> getWearableDevicesAbovePrice(double price) {
+        return readLocked(() -> super.getWearableDevicesAbovePrice(price));
+    }
+
+    @Override
+    public List<WearableDevice> getWearableDevicesBelowPrice(double price) {
+        return readLocked(() -> super.getWearableDevicesBelowPrice(price));
+    }
+
+    @Override
+    public List<WearableDevice> getWearableDevicesBetweenPrices(double minPrice, double maxPrice) {
+        return readLocked(() -> super.getWearableDevicesBetweenPrices(minPrice, maxPrice));
+    }
+
+    @Override
+    public List<WearableDevice> getWearableDevicesByManufacturer(String manufacturerName) {
+        return readLocked(() -> super.getWearableDevicesByManufacturer(manufacturerName));
+    }
+
+    @Override
+    public String listAllTechDevicesByChosenManufacturer(String manufacturerName) {
+        return readLocked(() -> super.listAllTechDevicesByChosenManufacturer(manufacturerName));
+    }
+
+    @Override
+    public int writeWearableDevices(Appendable out, Predicate<WearableDevice> filter) throws IOException {
+        // Writing to a slow output can take a while, so it is done from a snapshot outside the lock
+        return writeWearableDevices(out, filter, snapshot().wearableDevices());
+    }
+
+    // Number methods
+
+    @Override
+    public int numberOfWearableDevices() {
+        return readLocked(super::numberOfWearableDevices);
+    }
+
+    @Override
+    public int numberOfSmartBands() {
+        return readLocked(super::numberOfSmartBands);
+    }
+
+    @Override
+    public int numberOfSmartWatches() {
+        return readLocked(super::numberOfSmartWatches);
+    }
+
+    @Override
+    public int numberOfWearableDeviceByManufacturer(String manufacturerName) {
+        return readLocked(() -> super.numberOfWearableDeviceByManufacturer(manufacturerName));
+    }
+
+    @Override
+    public int numberOfWearableDevicesBySize(String size) {
+        return readLocked(() -> super.numberOfWearableDevicesBySize(size));
+    }
+
+    @Override
+    public int numberOfSmartWatchesByDisplayType(String displayType) {
+        return readLocked(() -> super.numberOfSmartWatchesByDisplayType(displayType));
+    }
+
+    @Override
+    public int numberOfSmartBandsWithHeartRateMonitor() {
+        return readLocked(super::numberOfSmartBandsWithHeartRateMonitor);
+    }
+
+    @Override
+    public double averagePrice() {
+        return readLocked(super::averagePrice);
+    }
+
+    @Override
+    public double averagePriceByManufacturer(String manufacturerName) {
+        return readLocked(() -> super.averagePriceByManufacturer(manufacturerName));
+    }
+
+    // Update methods
+
+    @Override
+    public boolean updateSmartWatch(String id, SmartWatch updatedDetails) {
+        return writeLocked(() -> super.updateSmartWatch(id, updatedDetails));
+    }
+
+    @Override
+    public boolean updateSmartBand(String id, SmartBand updatedDetails) {
+        return writeLocked(() -> super.updateSmartBand(id, updatedDetails));
+    }
+
+    @Override
+    public List<WearableDevice> updateWearableDevicesWhere(Predicate<WearableDevice> filter, Consumer<WearableDevice> mutator) {
+        return writeLocked(() -> super.updateWearableDevicesWhere(filter, mutator));
+    }
+
+    // Validation Methods
+
+    @Override
+    public boolean isValidId(String id) {
+        return readLocked(() -> super.isValidId(id));
+    }
+
+    // Sorting Methods
+
+    @Override
+    public void sortByPriceAscending() {
+        writeLocked(() -> {
+            super.sortByPriceAscending();
+            return null;
+        });
+    }
+
+    @Override
+    public void sortByPriceDescending() {
+        writeLocked(() -> {
+            super.sortByPriceDescending();
+            return null;
+        });
+    }
+
+    @Override
+    public int getParallelSortThreshold() {
+        return readLocked(super::getParallelSortThreshold);
+    }
+
+    @Override
+    public void setParallelSortThreshold(int parallelSortThreshold) {
+        writeLocked(() -> {
+            super.setParallelSortThreshold(parallelSortThreshold);
+            return null;
+        });
+    }
+
+    // Top 5 methods
+
+    @Override
+    public List<WearableDevice> topFiveMostExpensiveWearableDevice() {
+        return readLocked(super::topFiveMostExpensiveWearableDevice);
+    }
+
+    @Override
+    public List<WearableDevice> topFiveMostExpensiveSmartWatch() {
+        return readLocked(super::topFiveMostExpensiveSmartWatch);
+    }
+
+    @Override
+    public List<WearableDevice> topFiveMostExpensiveSmartBand() {
+        return readLocked(super::topFiveMostExpensiveSmartBand);
+    }
+
+    @Override
+    public List<WearableDevice> topK(int k, Predicate<WearableDevice> filter, Comparator<WearableDevice> comparator) {
+        return readLocked(() -> super.topK(k, filter, comparator));
+    }
+
+    // Search methods
+
+    @Override
+    public List<WearableDevice> query(WearableDeviceQuery query) {
+        return readLocked(() -> super.query(query));
+    }
+
+    @Override
+    public String searchByScreenType(String screenType) {
+        return readLocked(() -> super.searchByScreenType(screenType));
+    }
+
+    @Override
+    public String searchForHeartMonitors() {
+        return readLocked(super::searchForHeartMonitors);
+    }
+
+    @Override
+    public String searchBySize(String size) {
+        return readLocked(() -> super.searchBySize(size));
+    }
+
+    @Override
+    public String searchByMaterial(String material) {
+        return readLocked(() -> super.searchByMaterial(material));
+    }
+
+    @Override
+    public String searchByModelName(String modelName) {
+        return readLocked(() -> super.searchByModelName(modelName));
+    }
+
+    // Persistence methods
+
+    @Override
+    public void load() throws Exception {
+        saveLock.lock();
+        try {
+            lock.writeLock().lock();
+            try {
+                super.load();
+                // Everything just loaded is already in the file or its journal
+                savedVersion = currentVersion();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    @Override
+    public void save() throws Exception {
+        saveLock.lock();
+        try {
+            CatalogueSnapshot snapshot;
+            boolean journaled;
+            lock.readLock().lock();
+            try {
+                journaled = isJournalEnabled();
+                // Rotating the journal needs no writes to it in the meantime, which the read lock ensures
+                snapshot = journaled ? rotateJournal() : snapshot();
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            if (journaled) {
+                writeRotatedSnapshot(snapshot);
+            } else {
+                writeSnapshot(snapshot);
+            }
+            savedVersion = snapshot.version();
+
+            if (!journaled) {
+                lock.readLock().lock();
+                try {
+                    if (!isJournalEnabled()) {
+                        discardJournal();
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    @Override
+    public CatalogueSnapshot snapshot() {
+        return readLocked(super::snapshot);
+    }
+
+    /**
+     * Checks whether the list has changed since it was last saved.
+     *
+     * @return true if there are unsaved changes, false otherwise.
+     */
+    public boolean hasUnsavedChanges() {
+        return readLocked(() -> currentVersion() != savedVersion);
+    }
+
+    /**
+     * Starts saving in the background. Every time the delay passes after the previous background save finished,
+     * the list is saved if it has changed in the meantime. Calling this while autosave is already running has no
+     * effect.
+     *
+     * @param delay the time to wait between background saves.
+     * @param unit the unit of the delay.
+     */
+    public synchronized void startAutosave(long delay, TimeUnit unit) {
+        if (autosaveExecutor != null) {
+            return;
+        }
+        autosaveExecutor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "wearable-device-autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+        autosaveExecutor.scheduleWithFixedDelay(this::saveIfChanged, delay, delay, unit);
+    }
+
+    /**
+     * Asks for a background save as soon as possible, without waiting for it. If a requested save is already
+     * waiting to run, this request is merged into it. Does nothing unless autosave has been started.
+     */
+    public void requestSave() {
+        scheduleSave();
+    }
+
+    /**
+     * Stops saving in the background, waiting for a save in progress to finish, then saves any changes made since.
+     *
+     * @throws Exception An exception is thrown if an error occurred during the final save e.g. drive is full.
+     */
+    public synchronized void stopAutosave() throws Exception {
+        if (autosaveExecutor == null) {
+            return;
+        }
+        autosaveExecutor.shutdown();
+        autosaveExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        autosaveExecutor = null;
+        if (hasUnsavedChanges()) {
+            save();
+        }
+    }
+
+    /**
+     * Gets the error the most recent background save failed with. Background saves that fail are retried on the
+     * next run.
+     *
+     * @return the error, or null if the most recent background save succeeded or none has run yet.
+     */
+    public Exception getLastAutosaveFailure() {
+        return lastAutosaveFailure;
+    }
+
+    /**
+     * Queues a background save unless one is already waiting to run.
+     *
+     * @return true if a background save will run, false if autosave isn't running.
+     */
+    private boolean scheduleSave() {
+        ScheduledExecutorService executor = autosaveExecutor;
+        if (executor == null) {
+            return false;
+        }
+        if (saveRequested.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> {
+                    saveRequested.set(false);
+                    saveIfChanged();
+                });
+            } catch (RejectedExecutionException e) {
+                // Autosave was stopped after the executor was read, so there is no background save to ask for
+                saveRequested.set(false);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    void compactJournal() {
+        // The change that asked for compaction holds the write lock, so the save must run on another thread
+        if (!scheduleSave() && compactionRequested.compareAndSet(false, true)) {
+            ForkJoinPool.commonPool().execute(() -> {
+                compactionRequested.set(false);
+                saveIfChanged();
+            });
+        }
+    }
+
+    private void saveIfChanged() {
+        if (!hasUnsavedChanges()) {
+            return;
+        }
+        try {
+            save();
+            lastAutosaveFailure = null;
+        } catch (Exception e) {
+            lastAutosaveFailure = e;
+        }
+    }
+
+    @Override
+    public void enableJournal(int groupCommitSize) throws IOException {
+        lock.writeLock().lock();
+        try {
+            super.enableJournal(groupCommitSize);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void disableJournal() throws IOException {
+        lock.writeLock().lock();
+        try {
+            super.disableJournal();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void syncJournal() throws IOException {
+        lock.readLock().lock();
+        try {
+            super.syncJournal();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void setJournalCompactionThreshold(long journalCompactionThreshold) {
+        writeLocked(() -> {
+            super.setJournalCompactionThreshold(journalCompactionThreshold);
+            return null;
+        });
+    }
+
+    @Override
+    public void exportCatalogue(File catalogueFile) throws IOException {
+        lock.readLock().lock();
+        try {
+            super.exportCatalogue(catalogueFile);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private <T> T readLocked(Supplier<T> action) {
+        lock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private <T> T writeLocked(Supplier<T> action) {
+        lock.writeLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
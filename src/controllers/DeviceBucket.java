@@ -0,0 +1,118 @@
+package controllers;
+
+import models.WearableDevice;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * A group of WearableDevices in the price or manufacturer index, iterated in the order they were added.
+ * <p>
+ * Devices are matched on identity, because the models override equals() to compare field values. Removing a
+ * device only empties its slot, so it takes O(1) time however large the group is; the slots are renumbered once
+ * more than half of them are empty, which keeps iterating the group linear in its size.
+ */
+final class DeviceBucket extends AbstractCollection<WearableDevice> {
+    private final Map<WearableDevice, Integer> slots = new IdentityHashMap<>();
+
+    // The device in each slot, or null once it has been removed
+    private WearableDevice[] devices = new WearableDevice[4];
+    private int slotCount;
+
+    @Override
+    public boolean add(WearableDevice techDev) {
+        if (slots.containsKey(techDev)) {
+            return false;
+        }
+        if (slotCount == devices.length) {
+            devices = Arrays.copyOf(devices, devices.length * 2);
+        }
+        slots.put(techDev, slotCount);
+        devices[slotCount++] = techDev;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        Integer slot = slots.remove(o);
+        if (slot == null) {
+            return false;
+        }
+        devices[slot] = null;
+        compactIfSparse();
+        return true;
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super WearableDevice> filter) {
+        boolean removed = false;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (devices[slot] != null && filter.test(devices[slot])) {
+                slots.remove(devices[slot]);
+                devices[slot] = null;
+                removed = true;
+            }
+        }
+        compactIfSparse();
+        return removed;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return slots.containsKey(o);
+    }
+
+    @Override
+    public int size() {
+        return slots.size();
+    }
+
+    @Override
+    public Iterator<WearableDevice> iterator() {
+        return new Iterator<>() {
+            private int slot = nextFilled(0);
+
+            @Override
+            public boolean hasNext() {
+                return slot < slotCount;
+            }
+
+            @Override
+            public WearableDevice next() {
+                if (slot >= slotCount) {
+                    throw new NoSuchElementException();
+                }
+                WearableDevice techDev = devices[slot];
+                slot = nextFilled(slot + 1);
+                return techDev;
+            }
+        };
+    }
+
+    private int nextFilled(int slot) {
+        while (slot < slotCount && devices[slot] == null) {
+            slot++;
+        }
+        return slot;
+    }
+
+    private void compactIfSparse() {
+        if (slotCount <= 16 || slots.size() * 2 >= slotCount) {
+            return;
+        }
+        int filled = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (devices[slot] != null) {
+                slots.put(devices[slot], filled);
+                devices[filled++] = devices[slot];
+            }
+        }
+        Arrays.fill(devices, filled, slotCount, null);
+        slotCount = filled;
+    }
+}
@@ -0,0 +1,267 @@
+package controllers;
+
+import models.WearableDevice;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the changes made to a WearableDeviceAPI since its last snapshot was saved.
+ * <p>
+ * Each entry is written as its payload length, a CRC32 of the payload, then the payload: an operation byte followed
+ * by the operation's data, with devices encoded as BinarySnapshot records. If the application stops part way through
+ * writing an entry, the torn entry fails its length or CRC check; replay stops there and the next open cuts it off.
+ */
+final class DeviceJournal implements Closeable {
+
+    /**
+     * Receives the operations read back from a journal, in the order they were logged.
+     */
+    interface Replayer {
+        void added(WearableDevice wearableDevice);
+
+        void deleted(String id);
+
+        void updated(String id, WearableDevice updatedDetails);
+
+        void updatedAll(List<String> ids, List<WearableDevice> updatedDevices);
+
+        void sorted(boolean ascending);
+    }
+
+    private static final byte ADD = 1;
+    private static final byte DELETE = 2;
+    private static final byte UPDATE = 3;
+    private static final byte SORT = 4;
+    private static final byte UPDATE_ALL = 5;
+
+    private static final int ENTRY_HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final FileChannel channel;
+    private final int groupCommitSize;
+    private int unsyncedEntries;
+
+    private DeviceJournal(FileChannel channel, int groupCommitSize) {
+        this.channel = channel;
+        this.groupCommitSize = groupCommitSize;
+    }
+
+    /**
+     * Opens a journal for appending, creating it if needed and cutting off any torn entry at the end.
+     *
+     * @param file the journal file.
+     * @param groupCommitSize the number of entries to write between each fsync, or 0 to leave flushing to the
+     *                        operating system.
+     * @return the open journal.
+     * @throws IOException if the journal cannot be opened.
+     */
+    static DeviceJournal open(File file, int groupCommitSize) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long validLength = scan(channel, null);
+            channel.truncate(validLength);
+            channel.position(validLength);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new DeviceJournal(channel, Math.max(groupCommitSize, 0));
+    }
+
+    /**
+     * Replays every complete entry in a journal file.
+     *
+     * @param file the journal file.
+     * @param replayer receives each operation in the order it was logged.
+     * @throws IOException if the journal cannot be read.
+     */
+    static void replay(File file, Replayer replayer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            scan(channel, replayer);
+        }
+    }
+
+    void logAdd(WearableDevice wearableDevice) {
+        append(out -> {
+            out.writeByte(ADD);
+            BinarySnapshot.writeDevice(out, wearableDevice);
+        });
+    }
+
+    void logDelete(String id) {
+        append(out -> {
+            out.writeByte(DELETE);
+            out.writeUTF(id);
+        });
+    }
+
+    void logUpdate(String id, WearableDevice updatedDetails) {
+        append(out -> {
+            out.writeByte(UPDATE);
+            out.writeUTF(id);
+            BinarySnapshot.writeDevice(out, updatedDetails);
+        });
+    }
+
+    /**
+     * Logs a batch of updates as a single entry, so replay applies them together just as they were made: IDs
+     * swapped or passed along between devices in the batch are never seen half done.
+     *
+     * @param ids the ID each device had before the batch, in the same order as the updated devices.
+     * @param updatedDevices the devices as they are after the batch.
+     */
+    void logUpdateAll(List<String> ids, List<WearableDevice> updatedDevices) {
+        append(out -> {
+            out.writeByte(UPDATE_ALL);
+            out.writeInt(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                out.writeUTF(ids.get(i));
+                BinarySnapshot.writeDevice(out, updatedDevices.get(i));
+            }
+        });
+    }
+
+    void logSort(boolean ascending) {
+        append(out -> {
+            out.writeByte(SORT);
+            out.writeBoolean(ascending);
+        });
+    }
+
+    /**
+     * Gets the current size of the journal.
+     *
+     * @return the size of the journal in bytes.
+     * @throws UncheckedIOException if the size cannot be read.
+     */
+    long size() {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Forces every entry written so far to disk.
+     *
+     * @throws IOException if the journal cannot be synced.
+     */
+    void sync() throws IOException {
+        channel.force(false);
+        unsyncedEntries = 0;
+    }
+
+    /**
+     * Empties the journal, once everything in it is safely in a snapshot.
+     *
+     * @throws IOException if the journal cannot be truncated.
+     */
+    void reset() throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+        sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Journal writes happen inside the API's mutation methods, which don't declare IOException
+    private void append(EntryWriter entryWriter) {
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+            entryWriter.write(new DataOutputStream(payload));
+            byte[] bytes = payload.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_SIZE + bytes.length);
+            entry.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+            while (entry.hasRemaining()) {
+                channel.write(entry);
+            }
+            unsyncedEntries++;
+            if (groupCommitSize > 0 && unsyncedEntries >= groupCommitSize) {
+                sync();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the journal from the start, passing each complete entry to the replayer if there is one.
+     *
+     * @return the length of the journal up to the end of the last complete entry.
+     */
+    private static long scan(FileChannel channel, Replayer replayer) throws IOException {
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        while (size - position >= ENTRY_HEADER_SIZE) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            int expectedCrc = header.getInt(Integer.BYTES);
+            if (length <= 0 || length > size - position - ENTRY_HEADER_SIZE) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, position + ENTRY_HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            if (replayer != null) {
+                apply(new DataInputStream(new ByteArrayInputStream(payload.array())), replayer);
+            }
+            position += ENTRY_HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    private static void apply(DataInputStream in, Replayer replayer) throws IOException {
+        byte operation = in.readByte();
+        switch (operation) {
+            case ADD -> replayer.added(BinarySnapshot.readDevice(in));
+            case DELETE -> replayer.deleted(in.readUTF());
+            case UPDATE -> {
+                String id = in.readUTF();
+                replayer.updated(id, BinarySnapshot.readDevice(in));
+            }
+            case SORT -> replayer.sorted(in.readBoolean());
+            case UPDATE_ALL -> {
+                int count = in.readInt();
+                List<String> ids = new ArrayList<>(count);
+                List<WearableDevice> updatedDevices = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    ids.add(in.readUTF());
+                    updatedDevices.add(BinarySnapshot.readDevice(in));
+                }
+                replayer.updatedAll(ids, updatedDevices);
+            }
+            default -> throw new IOException("Unknown journal operation " + operation);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package controllers;
+
+import models.WearableDevice;
+
+import java.util.List;
+
+/**
+ * One page of WearableDevices from WearableDeviceAPI.pageAfter(), together with the cursor to fetch the next page
+ * with.
+ */
+public final class DevicePage {
+    private final List<WearableDevice> wearableDevices;
+    private final String nextCursor;
+    private final boolean more;
+
+    DevicePage(List<WearableDevice> wearableDevices, String nextCursor, boolean more) {
+        this.wearableDevices = wearableDevices;
+        this.nextCursor = nextCursor;
+        this.more = more;
+    }
+
+    /**
+     * Gets the WearableDevices on this page, in ID order.
+     *
+     * @return an unmodifiable list of the WearableDevices.
+     */
+    public List<WearableDevice> getWearableDevices() {
+        return wearableDevices;
+    }
+
+    /**
+     * Gets the cursor to pass to pageAfter() for the next page. An empty page leaves the cursor where it was, so
+     * this is null both after the last page and after an empty first page; use hasMore() to tell them apart.
+     *
+     * @return the cursor, or null if this is the last page or the next page is the first.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Checks whether there is another page after this one.
+     *
+     * @return true if there are more WearableDevices, false if this is the last page.
+     */
+    public boolean hasMore() {
+        return more;
+    }
+}
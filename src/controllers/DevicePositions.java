@@ -0,0 +1,166 @@
+package controllers;
+
+import models.WearableDevice;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the position of every WearableDevice in the list, so a device found through the ID index can be updated
+ * or deleted without scanning the list for it.
+ * <p>
+ * Each device is given a slot when it is added, in list order. Deleting a device only empties its slot rather than
+ * renumbering the slots after it, and a Fenwick tree counting the filled slots turns a slot back into a position,
+ * or a position into a slot, in O(log n) time. Once more than half the slots are empty, the filled ones are
+ * renumbered from 0. Devices are matched on identity, because the models override equals() to compare field values.
+ */
+final class DevicePositions {
+    private final Map<WearableDevice, Integer> slots = new IdentityHashMap<>();
+
+    // The device in each slot, or null once it has been deleted
+    private WearableDevice[] devices = new WearableDevice[16];
+
+    // 1-based Fenwick tree: tree[i] counts the filled slots from i - (i & -i) up to i - 1
+    private int[] tree = new int[devices.length + 1];
+    private int slotCount;
+    private int filledCount;
+
+    /**
+     * Starts tracking a list afresh, e.g. after it has been loaded or sorted.
+     *
+     * @param wearableDevices the list, in order.
+     */
+    void reset(List<WearableDevice> wearableDevices) {
+        slots.clear();
+        devices = new WearableDevice[Math.max(16, wearableDevices.size())];
+        tree = new int[devices.length + 1];
+        slotCount = 0;
+        for (WearableDevice techDev : wearableDevices) {
+            slots.putIfAbsent(techDev, slotCount);
+            devices[slotCount++] = techDev;
+        }
+        filledCount = slotCount;
+        buildTree();
+    }
+
+    /**
+     * Records a WearableDevice added to the end of the list.
+     *
+     * @param techDev the WearableDevice added.
+     */
+    void add(WearableDevice techDev) {
+        if (slotCount == devices.length) {
+            devices = Arrays.copyOf(devices, devices.length * 2);
+            tree = Arrays.copyOf(tree, devices.length + 1);
+        }
+        int node = ++slotCount;
+        // The new node counts its own slot plus the nodes below it that are already built
+        tree[node] = 1 + prefix(node - 1) - prefix(node - (node & -node));
+        devices[node - 1] = techDev;
+        slots.putIfAbsent(techDev, node - 1);
+        filledCount++;
+    }
+
+    /**
+     * Finds the position of a WearableDevice in the list.
+     *
+     * @param techDev the WearableDevice to find.
+     * @return its position, or -1 if it isn't in the list.
+     */
+    int positionOf(WearableDevice techDev) {
+        Integer slot = slots.get(techDev);
+        return slot == null ? -1 : prefix(slot);
+    }
+
+    /**
+     * Records a WearableDevice put in place of the one at a position in the list.
+     *
+     * @param position the position in the list.
+     * @param replacement the WearableDevice now at that position.
+     */
+    void set(int position, WearableDevice replacement) {
+        int slot = slotAt(position);
+        slots.remove(devices[slot], slot);
+        devices[slot] = replacement;
+        slots.putIfAbsent(replacement, slot);
+    }
+
+    /**
+     * Records that the WearableDevice at a position has been removed from the list, moving the ones after it up.
+     *
+     * @param position the position in the list.
+     */
+    void remove(int position) {
+        int slot = slotAt(position);
+        slots.remove(devices[slot], slot);
+        devices[slot] = null;
+        for (int node = slot + 1; node <= slotCount; node += node & -node) {
+            tree[node]--;
+        }
+        filledCount--;
+        if (slotCount > 16 && filledCount * 2 < slotCount) {
+            compact();
+        }
+    }
+
+    /**
+     * Counts the filled slots before a slot, which is the position of the device in it.
+     */
+    private int prefix(int slot) {
+        int count = 0;
+        for (int node = slot; node > 0; node -= node & -node) {
+            count += tree[node];
+        }
+        return count;
+    }
+
+    /**
+     * Finds the slot holding the device at a position, by walking down the tree to the last node with no more
+     * filled slots below it than the position.
+     */
+    private int slotAt(int position) {
+        int node = 0;
+        int remaining = position;
+        for (int step = Integer.highestOneBit(slotCount); step > 0; step >>= 1) {
+            int next = node + step;
+            if (next <= slotCount && tree[next] <= remaining) {
+                node = next;
+                remaining -= tree[next];
+            }
+        }
+        return node;
+    }
+
+    private void compact() {
+        int filled = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            WearableDevice techDev = devices[slot];
+            if (techDev != null) {
+                // The same device may be in the list twice; only the slot it is found by moves its entry
+                Integer mapped = slots.get(techDev);
+                if (mapped != null && mapped == slot) {
+                    slots.put(techDev, filled);
+                }
+                devices[filled++] = techDev;
+            }
+        }
+        Arrays.fill(devices, filled, slotCount, null);
+        slotCount = filled;
+        buildTree();
+    }
+
+    private void buildTree() {
+        Arrays.fill(tree, 0);
+        for (int node = 1; node <= slotCount; node++) {
+            if (devices[node - 1] != null) {
+                tree[node]++;
+            }
+            int parent = node + (node & -node);
+            if (parent <= slotCount) {
+                tree[parent] += tree[node];
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package controllers;
+
+import models.WearableDevice;
+import utils.ManufacturerNameUtility;
+import utils.Utilities;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * WearableDevices read for a bulk import, each with the row it came from, together with the rows already rejected
+ * while reading.
+ * <p>
+ * The input is streamed: devices are collected into chunks of CHUNK_SIZE as they are read, and each full chunk is
+ * handed to the API before the next is read, so an import never holds more than one chunk of the input in memory.
+ * A WearableDeviceAPI shared between threads only locks while a chunk is added, not while the input is parsed.
+ */
+final class ImportBatch {
+
+    // The number of devices read before they are handed to the API
+    static final int CHUNK_SIZE = 1024;
+
+    private final WearableDevice[] devices = new WearableDevice[CHUNK_SIZE];
+    private final int[] rows = new int[CHUNK_SIZE];
+    private int size;
+    private final BulkImportResult result = new BulkImportResult();
+    private final Consumer<ImportBatch> sink;
+
+    // Every device added so far, kept only when the import may need to be undone
+    private final List<WearableDevice> importedDevices;
+
+    private ImportBatch(Consumer<ImportBatch> sink, boolean keepImported) {
+        this.sink = sink;
+        this.importedDevices = keepImported ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Imports a collection, numbering the rows by their position in it.
+     *
+     * @param wearableDevices the WearableDevices to import.
+     * @param sink adds each chunk of devices to the API.
+     * @return the result of the whole import.
+     */
+    static BulkImportResult of(Collection<? extends WearableDevice> wearableDevices, Consumer<ImportBatch> sink) {
+        ImportBatch batch = new ImportBatch(sink, false);
+        int row = 0;
+        for (WearableDevice techDev : wearableDevices) {
+            row++;
+            if (techDev == null) {
+                batch.reject(row, null, "No device");
+            } else {
+                batch.add(row, techDev);
+            }
+        }
+        return batch.finish();
+    }
+
+    /**
+     * Imports CSV, in the format WearableDeviceCsv describes.
+     *
+     * @param in the CSV to read.
+     * @param sink adds each chunk of devices to the API.
+     * @return the result of the whole import.
+     * @throws IOException if the input cannot be read.
+     */
+    static BulkImportResult fromCsv(Reader in, Consumer<ImportBatch> sink) throws IOException {
+        ImportBatch batch = new ImportBatch(sink, false);
+        WearableDeviceCsv.read(in, batch);
+        return batch.finish();
+    }
+
+    /**
+     * Imports XML in the format save() writes, numbering the rows by the position of each device in the file. If
+     * the XML turns out to be malformed part way through, the chunks already added are handed to the undo
+     * consumer before the exception is thrown, so they can be removed again.
+     *
+     * @param in the XML to read.
+     * @param sink adds each chunk of devices to the API.
+     * @param undo receives every device added before the XML was found to be malformed.
+     * @return the result of the whole import.
+     * @throws XMLStreamException if the XML is not well-formed or not in the format save() writes.
+     */
+    static BulkImportResult fromXml(Reader in, Consumer<ImportBatch> sink, Consumer<List<WearableDevice>> undo)
+            throws XMLStreamException {
+        ImportBatch batch = new ImportBatch(sink, true);
+        try {
+            WearableDeviceXmlStream.read(in, batch);
+        } catch (XMLStreamException e) {
+            if (!batch.importedDevices.isEmpty()) {
+                undo.accept(batch.importedDevices);
+            }
+            throw e;
+        }
+        return batch.finish();
+    }
+
+    /**
+     * Checks the fields every device has against the rules the WearableDevice constructor enforces by truncating
+     * or falling back to a default, so nothing is imported with different details from the ones in the input.
+     *
+     * @param size the size.
+     * @param price the price, in euro.
+     * @param manufacturerName the manufacturer name.
+     * @param material the material.
+     * @param modelName the model name.
+     * @param id the ID.
+     * @return the reason the device should be rejected, or null if every field is valid.
+     */
+    static String invalidField(String size, double price, String manufacturerName, String material,
+                               String modelName, String id) {
+        if (price < 20 || price * 100 > Utilities.MAX_CENTS) {
+            return "Price out of range: " + price;
+        }
+        if (!ManufacturerNameUtility.isValidManuName(manufacturerName)) {
+            return "Unknown manufacturer: " + manufacturerName;
+        }
+        if (!Utilities.validStringlength(size, 10)) {
+            return "Size longer than 10 characters: " + size;
+        }
+        if (!Utilities.validStringlength(material, 20)) {
+            return "Material longer than 20 characters: " + material;
+        }
+        if (!Utilities.validStringlength(modelName, 30)) {
+            return "Model name longer than 30 characters: " + modelName;
+        }
+        if (!Utilities.validStringlength(id, 10)) {
+            return "ID longer than 10 characters: " + id;
+        }
+        return null;
+    }
+
+    void add(int row, WearableDevice techDev) {
+        devices[size] = techDev;
+        rows[size] = row;
+        size++;
+        if (size == CHUNK_SIZE) {
+            flush();
+        }
+    }
+
+    void reject(int row, String id, String reason) {
+        result.reject(row, id, reason);
+    }
+
+    /**
+     * Records that a device in the chunk has been added to the API.
+     *
+     * @param i the device's index in the chunk.
+     */
+    void imported(int i) {
+        result.imported();
+        if (importedDevices != null) {
+            importedDevices.add(devices[i]);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    WearableDevice device(int i) {
+        return devices[i];
+    }
+
+    int row(int i) {
+        return rows[i];
+    }
+
+    private void flush() {
+        if (size > 0) {
+            sink.accept(this);
+        }
+        // Rejected devices needn't stay reachable until the end of the import
+        Arrays.fill(devices, 0, size, null);
+        size = 0;
+    }
+
+    private BulkImportResult finish() {
+        flush();
+        result.sortRejects();
+        return result;
+    }
+}
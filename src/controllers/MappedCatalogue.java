@@ -0,0 +1,411 @@
+package controllers;
+
+import models.SmartBand;
+import models.SmartWatch;
+import models.WearableDevice;
+import utils.Utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read-only catalogue of WearableDevices served straight from a memory-mapped file.
+ * <p>
+ * Opening a catalogue only maps the file, so it takes the same time however many devices it holds, and the
+ * operating system shares the mapped pages between every process that opens the same file. Counts and price
+ * filters read the mapped bytes directly; WearableDevice objects are only created when a caller asks for one.
+ * <p>
+ * Catalogue files are written by WearableDeviceAPI.exportCatalogue(). Every record in a file has the same fixed
+ * layout, so the record for any index can be found without reading the ones before it:
+ * <pre>
+ * offset 0   price               long, in cents
+ * offset 8   type tag            byte (1 = SmartBand, 2 = SmartWatch)
+ * offset 9   heart rate monitor  byte (0 or 1)
+ * offset 10  size, manufacturer name, material, model name, ID and display type, each as a char count byte
+ *            (0xFF for null) followed by room for the longest value of that field in the file, in UTF-16 chars
+ * </pre>
+ * The header records how many chars each string field has room for, so a file can hold any names the
+ * devices it was written from have.
+ */
+public final class MappedCatalogue {
+
+    // "WDMC"
+    private static final int MAGIC = 0x57444D43;
+    private static final byte VERSION = 1;
+
+    // Header: magic, version (padded to 4 bytes), record count, record size, SmartBand count, SmartWatch count,
+    // then the char widths of the string fields (padded to 8 bytes)
+    private static final int HEADER_SIZE = 32;
+    private static final int FIELD_WIDTHS_OFFSET = 24;
+
+    private static final byte SMART_BAND_TAG = 1;
+    private static final byte SMART_WATCH_TAG = 2;
+
+    private static final int PRICE_OFFSET = 0;
+    private static final int TAG_OFFSET = 8;
+    private static final int HEART_RATE_MONITOR_OFFSET = 9;
+    private static final int STRINGS_OFFSET = 10;
+
+    // The string fields, in the order they are laid out in a record
+    private static final int SIZE_FIELD = 0;
+    private static final int MANUFACTURER_NAME_FIELD = 1;
+    private static final int MATERIAL_FIELD = 2;
+    private static final int MODEL_NAME_FIELD = 3;
+    private static final int ID_FIELD = 4;
+    private static final int DISPLAY_TYPE_FIELD = 5;
+    private static final int FIELD_COUNT = 6;
+
+    // A char count byte of 0xFF means null, so a field can hold at most 254 chars
+    private static final int NULL_LENGTH = 0xFF;
+    private static final int MAX_FIELD_CHARS = NULL_LENGTH - 1;
+
+    private final ByteBuffer buffer;
+    private final int recordSize;
+    private final int[] fieldOffsets;
+    private final int count;
+    private final int smartBandCount;
+    private final int smartWatchCount;
+
+    private MappedCatalogue(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a catalogue file");
+        }
+        if (buffer.get(4) != VERSION) {
+            throw new IOException("Unsupported catalogue version " + buffer.get(4));
+        }
+        count = buffer.getInt(8);
+        recordSize = buffer.getInt(12);
+        smartBandCount = buffer.getInt(16);
+        smartWatchCount = buffer.getInt(20);
+        int[] fieldChars = new int[FIELD_COUNT];
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            fieldChars[field] = Byte.toUnsignedInt(buffer.get(FIELD_WIDTHS_OFFSET + field));
+        }
+        fieldOffsets = fieldOffsets(fieldChars);
+        if (recordSize != recordSize(fieldOffsets) || count < 0
+                || (long) HEADER_SIZE + (long) count * recordSize > buffer.capacity()) {
+            throw new IOException("Catalogue file is truncated or has an unexpected layout");
+        }
+    }
+
+    /**
+     * Opens a catalogue file by mapping it into memory read-only.
+     *
+     * @param file the catalogue file, as written by WearableDeviceAPI.exportCatalogue().
+     * @return the catalogue.
+     * @throws IOException if the file cannot be mapped or is not a catalogue file.
+     */
+    public static MappedCatalogue open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return new MappedCatalogue(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes the WearableDevices to a catalogue file, replacing anything already in it. The catalogue is written
+     * to a temporary file first and then renamed over the file, so processes that still have the old file mapped
+     * keep reading it unchanged instead of seeing it truncated under them.
+     *
+     * @param file the file to write to.
+     * @param wearableDevices the WearableDevices to write.
+     * @throws IOException if the file cannot be written, or a device has a field longer than a catalogue allows.
+     */
+    static void write(File file, List<WearableDevice> wearableDevices) throws IOException {
+        int[] fieldChars = new int[FIELD_COUNT];
+        for (WearableDevice techDev : wearableDevices) {
+            String[] fields = fields(techDev);
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                if (fields[field] != null) {
+                    fieldChars[field] = Math.max(fieldChars[field], fields[field].length());
+                }
+            }
+        }
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            if (fieldChars[field] > MAX_FIELD_CHARS) {
+                throw new IOException("A device has a field longer than the " + MAX_FIELD_CHARS
+                        + " characters a catalogue allows");
+            }
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            writeRecords(tempFile, wearableDevices, fieldChars);
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    private static void writeRecords(File file, List<WearableDevice> wearableDevices, int[] fieldChars)
+            throws IOException {
+        int[] fieldOffsets = fieldOffsets(fieldChars);
+        int recordSize = recordSize(fieldOffsets);
+        long fileSize = HEADER_SIZE + (long) wearableDevices.size() * recordSize;
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("Too many devices for a single catalogue file: " + wearableDevices.size());
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            int smartBands = 0;
+            int smartWatches = 0;
+            int offset = HEADER_SIZE;
+            for (WearableDevice techDev : wearableDevices) {
+                out.putLong(offset + PRICE_OFFSET, techDev.getPriceCents());
+                if (techDev instanceof SmartBand smartBand) {
+                    out.put(offset + TAG_OFFSET, SMART_BAND_TAG);
+                    out.put(offset + HEART_RATE_MONITOR_OFFSET, (byte) (smartBand.isHeartRateMonitor() ? 1 : 0));
+                    smartBands++;
+                } else if (techDev instanceof SmartWatch) {
+                    out.put(offset + TAG_OFFSET, SMART_WATCH_TAG);
+                    smartWatches++;
+                }
+                String[] fields = fields(techDev);
+                for (int field = 0; field < FIELD_COUNT; field++) {
+                    putString(out, offset + fieldOffsets[field], fields[field]);
+                }
+                offset += recordSize;
+            }
+            out.putInt(0, MAGIC);
+            out.put(4, VERSION);
+            out.putInt(8, wearableDevices.size());
+            out.putInt(12, recordSize);
+            out.putInt(16, smartBands);
+            out.putInt(20, smartWatches);
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                out.put(FIELD_WIDTHS_OFFSET + field, (byte) fieldChars[field]);
+            }
+            out.force();
+        }
+    }
+
+    /**
+     * Gets the total number of WearableDevices in the catalogue.
+     *
+     * @return the total number of WearableDevices.
+     */
+    public int numberOfWearableDevices() {
+        return count;
+    }
+
+    /**
+     * Gets the total number of SmartBands in the catalogue.
+     *
+     * @return the total number of SmartBands.
+     */
+    public int numberOfSmartBands() {
+        return smartBandCount;
+    }
+
+    /**
+     * Gets the total number of SmartWatches in the catalogue.
+     *
+     * @return the total number of SmartWatches.
+     */
+    public int numberOfSmartWatches() {
+        return smartWatchCount;
+    }
+
+    /**
+     * Gets the total number of WearableDevices by the specified manufacturer, comparing the mapped names
+     * without creating any objects.
+     *
+     * @param manufacturerName the name of the manufacturer, ignoring case.
+     * @return the total number of WearableDevices by the specified manufacturer.
+     */
+    public int numberOfWearableDeviceByManufacturer(String manufacturerName) {
+        if (manufacturerName == null) {
+            return 0;
+        }
+        int matches = 0;
+        for (int i = 0; i < count; i++) {
+            if (stringEqualsIgnoreCase(recordOffset(i) + fieldOffsets[MANUFACTURER_NAME_FIELD], manufacturerName)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Gets the price of the WearableDevice at the index without creating the WearableDevice.
+     *
+     * @param index the index of the WearableDevice.
+     * @return the price of the WearableDevice.
+     * @throws IndexOutOfBoundsException if the index is invalid.
+     */
+    public double getPrice(int index) {
+        return getPriceCents(index) / 100.0;
+    }
+
+    /**
+     * Gets the price, in cents, of the WearableDevice at the index without creating the WearableDevice.
+     *
+     * @param index the index of the WearableDevice.
+     * @return the price of the WearableDevice in cents.
+     * @throws IndexOutOfBoundsException if the index is invalid.
+     */
+    public long getPriceCents(int index) {
+        return priceCents(checkedRecordOffset(index));
+    }
+
+    /**
+     * Creates the WearableDevice stored at the index.
+     *
+     * @param index the index of the WearableDevice.
+     * @return the WearableDevice at the specified index, or null if the index is invalid.
+     */
+    public WearableDevice getWearableDeviceByIndex(int index) {
+        if (index < 0 || index >= count) {
+            return null;
+        }
+        int offset = recordOffset(index);
+        String size = getString(offset + fieldOffsets[SIZE_FIELD]);
+        double price = priceCents(offset) / 100.0;
+        String manufacturerName = getString(offset + fieldOffsets[MANUFACTURER_NAME_FIELD]);
+        String material = getString(offset + fieldOffsets[MATERIAL_FIELD]);
+        String modelName = getString(offset + fieldOffsets[MODEL_NAME_FIELD]);
+        String id = getString(offset + fieldOffsets[ID_FIELD]);
+        if (buffer.get(offset + TAG_OFFSET) == SMART_BAND_TAG) {
+            return new SmartBand(size, price, manufacturerName, material, modelName, id,
+                    buffer.get(offset + HEART_RATE_MONITOR_OFFSET) != 0);
+        }
+        return new SmartWatch(size, price, manufacturerName, material, modelName, id,
+                getString(offset + fieldOffsets[DISPLAY_TYPE_FIELD]));
+    }
+
+    /**
+     * Gets the number of WearableDevices with a price above the specified value.
+     *
+     * @param price the price threshold (exclusive).
+     * @return the number of matching WearableDevices.
+     */
+    public int numberOfWearableDevicesAbovePrice(double price) {
+        long cents = Utilities.centsAtMost(price);
+        int matches = 0;
+        for (int i = 0; i < count; i++) {
+            if (priceCents(recordOffset(i)) > cents) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Gets the WearableDevices with a price above the specified value. Only the matching devices are created.
+     *
+     * @param price the price threshold (exclusive).
+     * @return a new list of the matching WearableDevices, in catalogue order.
+     */
+    public List<WearableDevice> getWearableDevicesAbovePrice(double price) {
+        long cents = Utilities.centsAtMost(price);
+        List<WearableDevice> matches = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (priceCents(recordOffset(i)) > cents) {
+                matches.add(getWearableDeviceByIndex(i));
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Gets the WearableDevices with a price below the specified value. Only the matching devices are created.
+     *
+     * @param price the price threshold (exclusive).
+     * @return a new list of the matching WearableDevices, in catalogue order.
+     */
+    public List<WearableDevice> getWearableDevicesBelowPrice(double price) {
+        long cents = Utilities.centsAtLeast(price);
+        List<WearableDevice> matches = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (priceCents(recordOffset(i)) < cents) {
+                matches.add(getWearableDeviceByIndex(i));
+            }
+        }
+        return matches;
+    }
+
+    private long priceCents(int recordOffset) {
+        return buffer.getLong(recordOffset + PRICE_OFFSET);
+    }
+
+    // The string fields of a device, indexed by the *_FIELD constants
+    private static String[] fields(WearableDevice techDev) {
+        String displayType = techDev instanceof SmartWatch smartWatch ? smartWatch.getDisplayType() : null;
+        return new String[]{techDev.getSize(), techDev.getManufacturerName(), techDev.getMaterial(),
+                techDev.getModelName(), techDev.getId(), displayType};
+    }
+
+    private static int[] fieldOffsets(int[] fieldChars) {
+        // One more entry than there are fields, giving the offset just past the last one
+        int[] offsets = new int[fieldChars.length + 1];
+        offsets[0] = STRINGS_OFFSET;
+        for (int field = 0; field < fieldChars.length; field++) {
+            offsets[field + 1] = offsets[field] + 1 + fieldChars[field] * Character.BYTES;
+        }
+        return offsets;
+    }
+
+    // Rounded up to a multiple of 8 so every price stays 8-byte aligned
+    private static int recordSize(int[] fieldOffsets) {
+        return (fieldOffsets[fieldOffsets.length - 1] + 7) & ~7;
+    }
+
+    private int recordOffset(int index) {
+        return HEADER_SIZE + index * recordSize;
+    }
+
+    private int checkedRecordOffset(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + count);
+        }
+        return recordOffset(index);
+    }
+
+    private static void putString(ByteBuffer out, int offset, String value) {
+        if (value == null) {
+            out.put(offset, (byte) NULL_LENGTH);
+            return;
+        }
+        out.put(offset, (byte) value.length());
+        for (int i = 0; i < value.length(); i++) {
+            out.putChar(offset + 1 + i * Character.BYTES, value.charAt(i));
+        }
+    }
+
+    private String getString(int offset) {
+        int length = Byte.toUnsignedInt(buffer.get(offset));
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar(offset + 1 + i * Character.BYTES);
+        }
+        return new String(chars);
+    }
+
+    private boolean stringEqualsIgnoreCase(int offset, String value) {
+        int length = Byte.toUnsignedInt(buffer.get(offset));
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char mapped = buffer.getChar(offset + 1 + i * Character.BYTES);
+            char wanted = value.charAt(i);
+            if (mapped != wanted && Character.toUpperCase(mapped) != Character.toUpperCase(wanted)
+                    && Character.toLowerCase(mapped) != Character.toLowerCase(wanted)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,166 @@
+package controllers;
+
+import models.WearableDevice;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Reads and writes WearableDevices as a set of binary snapshot shards, serialised in parallel on the common
+ * fork/join pool.
+ * <p>
+ * The list is split into contiguous shards, each written as its own BinarySnapshot file. A small manifest, written
+ * once every shard is complete and renamed into place, names the shards in order. Shard file names include a
+ * generation number, so a save never overwrites the shards the current manifest points to; the previous generation
+ * is deleted once the new manifest is in place.
+ */
+final class ShardedSnapshot {
+
+    // "WDSM"
+    static final int MAGIC = 0x5744534D;
+    private static final byte VERSION = 1;
+
+    private ShardedSnapshot() {
+    }
+
+    /**
+     * Checks whether a file is a sharded snapshot manifest.
+     *
+     * @param file the file to check.
+     * @return true if the file is a manifest, false otherwise.
+     * @throws IOException if the file cannot be read.
+     */
+    static boolean isManifest(File file) throws IOException {
+        return BinarySnapshot.readMagic(file) == MAGIC;
+    }
+
+    /**
+     * Writes the WearableDevices as shards, then writes the manifest listing them to the given file.
+     *
+     * @param manifestFile the file to write the manifest to.
+     * @param wearableDevices the WearableDevices to write.
+     * @param shardCount the number of shards to split the WearableDevices into.
+     * @throws IOException if a shard or the manifest cannot be written.
+     */
+    static void write(File manifestFile, List<WearableDevice> wearableDevices, int shardCount) throws IOException {
+        List<File> previousShards = shardsOf(manifestFile);
+
+        int shards = Math.max(1, Math.min(shardCount, wearableDevices.size()));
+        long generation = System.currentTimeMillis();
+        while (new File(manifestFile.getPath() + "." + generation + ".shard0").exists()) {
+            generation++;
+        }
+        List<File> shardFiles = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            shardFiles.add(new File(manifestFile.getPath() + "." + generation + ".shard" + i));
+        }
+
+        try {
+            IntStream.range(0, shards).parallel().forEach(i -> {
+                int from = (int) ((long) wearableDevices.size() * i / shards);
+                int to = (int) ((long) wearableDevices.size() * (i + 1) / shards);
+                try {
+                    BinarySnapshot.write(shardFiles.get(i), wearableDevices.subList(from, to));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            deleteAll(shardFiles);
+            throw e.getCause();
+        }
+
+        // The manifest is written to a temporary file and renamed into place, so it always names a complete set of shards
+        File tempManifest = new File(manifestFile.getPath() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempManifest.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeInt(shardFiles.size());
+                for (File shardFile : shardFiles) {
+                    // Shards live next to the manifest, so only their names are recorded
+                    out.writeUTF(shardFile.getName());
+                }
+            }
+            Files.move(tempManifest.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempManifest.toPath());
+            deleteAll(shardFiles);
+            throw e;
+        }
+
+        deleteAll(previousShards);
+    }
+
+    /**
+     * Reads every shard listed in a manifest, in parallel, and adds their WearableDevices to the list in order.
+     *
+     * @param manifestFile the manifest file.
+     * @param into the list to add the WearableDevices to.
+     * @throws IOException if the manifest or a shard cannot be read.
+     */
+    static void read(File manifestFile, List<WearableDevice> into) throws IOException {
+        List<File> shardFiles = readManifest(manifestFile);
+        List<List<WearableDevice>> shards;
+        try {
+            shards = shardFiles.parallelStream().map(shardFile -> {
+                List<WearableDevice> shard = new ArrayList<>();
+                try {
+                    BinarySnapshot.read(shardFile, shard);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return shard;
+            }).toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (List<WearableDevice> shard : shards) {
+            into.addAll(shard);
+        }
+    }
+
+    /**
+     * Lists the shards a file names, if it is a manifest.
+     *
+     * @param file the file to check.
+     * @return the shard files, or an empty list if the file doesn't exist or isn't a manifest.
+     * @throws IOException if the file cannot be read.
+     */
+    static List<File> shardsOf(File file) throws IOException {
+        return file.exists() && isManifest(file) ? readManifest(file) : new ArrayList<>();
+    }
+
+    private static List<File> readManifest(File manifestFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(manifestFile.getName() + " is not a sharded snapshot manifest");
+            }
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported sharded snapshot version " + version + " in " + manifestFile.getName());
+            }
+            int shards = in.readInt();
+            List<File> shardFiles = new ArrayList<>(shards);
+            for (int i = 0; i < shards; i++) {
+                shardFiles.add(new File(manifestFile.getAbsoluteFile().getParentFile(), in.readUTF()));
+            }
+            return shardFiles;
+        }
+    }
+
+    static void deleteAll(List<File> files) throws IOException {
+        for (File file : files) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+}
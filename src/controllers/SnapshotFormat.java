@@ -0,0 +1,23 @@
+package controllers;
+
+/**
+ * The file formats WearableDeviceAPI can save its WearableDevices in. Whichever format is chosen for saving,
+ * load() detects the format of the file it is reading.
+ */
+public enum SnapshotFormat {
+    /**
+     * The XStream-compatible XML format, readable by older versions of the application.
+     */
+    XML,
+
+    /**
+     * A compact, versioned binary format that is smaller and much faster to read and write than XML.
+     */
+    BINARY,
+
+    /**
+     * The binary format split into shards that are written and read in parallel, one per processor by default,
+     * plus a small manifest file listing the shards.
+     */
+    SHARDED
+}
@@ -0,0 +1,131 @@
+package controllers;
+
+import models.WearableDevice;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A case-insensitive substring index over one text field of the WearableDevices, e.g. their material.
+ * <p>
+ * Field values repeat a lot (most devices share a handful of sizes and materials), so the index works on distinct
+ * values: each is upper-cased once when first indexed, and every three-character sequence (trigram) in it points
+ * back to it. A search for a term of three or more characters only checks the values containing all of the term's
+ * trigrams, and only those values are compared with the term in full, using their cached upper-cased form. Shorter
+ * terms have no trigrams, so they are checked against every distinct value instead, which is still far fewer than
+ * the devices.
+ */
+final class TrigramIndex {
+
+    /**
+     * A distinct field value, upper-cased, and the devices that have it.
+     */
+    private static final class Value {
+        private final String upperCase;
+        private final Set<WearableDevice> devices = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private Value(String upperCase) {
+            this.upperCase = upperCase;
+        }
+    }
+
+    private final Map<String, Value> values = new HashMap<>();
+    private final Map<Long, Set<Value>> postings = new HashMap<>();
+
+    /**
+     * Indexes a device under one of its field values.
+     *
+     * @param value the field value, which may be null.
+     * @param techDev the device with the value.
+     */
+    void add(String value, WearableDevice techDev) {
+        if (value == null) {
+            return;
+        }
+        Value entry = values.get(value);
+        if (entry == null) {
+            entry = new Value(value.toUpperCase());
+            values.put(value, entry);
+            for (int i = 0; i + 3 <= entry.upperCase.length(); i++) {
+                postings.computeIfAbsent(trigram(entry.upperCase, i), trigram -> new HashSet<>()).add(entry);
+            }
+        }
+        entry.devices.add(techDev);
+    }
+
+    /**
+     * Removes a device from the index.
+     *
+     * @param value the field value the device was indexed under.
+     * @param techDev the device to remove.
+     */
+    void remove(String value, WearableDevice techDev) {
+        if (value == null) {
+            return;
+        }
+        Value entry = values.get(value);
+        if (entry == null || !entry.devices.remove(techDev) || !entry.devices.isEmpty()) {
+            return;
+        }
+        values.remove(value);
+        for (int i = 0; i + 3 <= entry.upperCase.length(); i++) {
+            Long trigram = trigram(entry.upperCase, i);
+            Set<Value> containing = postings.get(trigram);
+            if (containing != null && containing.remove(entry) && containing.isEmpty()) {
+                postings.remove(trigram);
+            }
+        }
+    }
+
+    /**
+     * Finds every device whose value contains the term, ignoring case.
+     *
+     * @param term the text to search for; null matches nothing, and neither do devices without a value.
+     * @return a new identity-based set of the matching devices.
+     */
+    Set<WearableDevice> search(String term) {
+        if (term == null) {
+            return Collections.newSetFromMap(new IdentityHashMap<>());
+        }
+        String upperTerm = term.toUpperCase();
+        Iterable<Value> candidates = values.values();
+        if (upperTerm.length() >= 3) {
+            // Start from the rarest trigram; the rest are checked by the full comparison below
+            Set<Value> rarest = null;
+            for (int i = 0; i + 3 <= upperTerm.length(); i++) {
+                Set<Value> containing = postings.get(trigram(upperTerm, i));
+                if (containing == null) {
+                    return Collections.newSetFromMap(new IdentityHashMap<>());
+                }
+                if (rarest == null || containing.size() < rarest.size()) {
+                    rarest = containing;
+                }
+            }
+            candidates = rarest;
+        }
+
+        Set<WearableDevice> matches = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Value candidate : candidates) {
+            if (candidate.upperCase.contains(upperTerm)) {
+                matches.addAll(candidate.devices);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Removes every device from the index.
+     */
+    void clear() {
+        values.clear();
+        postings.clear();
+    }
+
+    private static Long trigram(String upperCase, int start) {
+        return ((long) upperCase.charAt(start) << 32) | ((long) upperCase.charAt(start + 1) << 16) | upperCase.charAt(start + 2);
+    }
+}
@@ -8,10 +8,30 @@ import models.WearableDevice;
 import utils.ISerializer;
 import utils.Utilities;
 
+import javax.xml.stream.XMLStreamException;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * The WearableDeviceAPI class provides a collection of methods to manage a list of WearableDevice objects.
@@ -21,24 +41,184 @@ public class WearableDeviceAPI implements ISerializer {
     private List<WearableDevice> wearableList;
     private final File file;
 
+    // Case-insensitive index of the devices in wearableList, keyed on indexKey(id), so ID lookups don't scan the list.
+    private final Map<String, WearableDevice> idIndex;
+
+    // The same devices kept in ID order, so cursor pages can carry on from an ID wherever it now is in the list.
+    private final NavigableMap<String, WearableDevice> idOrder;
+
+    // Devices grouped by price in cents and kept in price order, so price range queries don't scan the list.
+    private final NavigableMap<Long, DeviceBucket> priceIndex;
+
+    // Devices grouped by indexKey(manufacturerName), plus running counts of each type of device. Both indexes keep
+    // each group in a DeviceBucket, so a device can be removed from its group without scanning it.
+    private final Map<String, DeviceBucket> manufacturerIndex;
+    private int smartBandCount;
+    private int smartWatchCount;
+
+    // Case-insensitive substring indexes over the text fields the search methods look in.
+    private final TrigramIndex sizeIndex = new TrigramIndex();
+    private final TrigramIndex materialIndex = new TrigramIndex();
+    private final TrigramIndex modelNameIndex = new TrigramIndex();
+
+    // Where each device is in the list, so updates and deletes by ID don't scan for it
+    private final DevicePositions positions = new DevicePositions();
+
+    // Lists with at least this many devices are sorted in parallel
+    private int parallelSortThreshold = 10_000;
+
+    // The format save() writes; load() detects the format of the file itself
+    private SnapshotFormat snapshotFormat = SnapshotFormat.XML;
+    private int shardCount = Runtime.getRuntime().availableProcessors();
+
+    // While journaling is enabled, every change is appended here; a save() compacts it into a fresh snapshot
+    private DeviceJournal journal;
+    private int journalGroupCommitSize;
+    private long journalCompactionThreshold = 16L * 1024 * 1024;
+
+    // Increased on every change to the list; the latest snapshot is reused until the version moves on
+    private long version;
+    private final AtomicReference<CatalogueSnapshot> latestSnapshot = new AtomicReference<>();
+
+    // Column-oriented copy of the list for scans and aggregations, kept in step with it once built
+    private final AtomicReference<ColumnarCatalogue> latestColumns = new AtomicReference<>();
+
     /**
      * Constructs a WearableDeviceAPI with an empty list of WearableDevices and sets the file to use to persist data.
      */
     public WearableDeviceAPI() {
+        this(new File("wearabledevices.xml"));
+    }
+
+    /**
+     * Constructs a WearableDeviceAPI with an empty list of WearableDevices that persists data to the given file.
+     *
+     * @param file the file to load from and save to.
+     */
+    public WearableDeviceAPI(File file) {
         wearableList = new ArrayList<WearableDevice>();
-        file = new File("wearabledevices.xml");
+        idIndex = new HashMap<>();
+        idOrder = new TreeMap<>();
+        priceIndex = new TreeMap<>();
+        manufacturerIndex = new HashMap<>();
+        this.file = file;
     }
 
     // Add/create methods
 
     /**
-     * Adds a WearableDevice to the list.
+     * Adds a WearableDevice to the list. IDs are unique (ignoring case), so a WearableDevice whose ID is
+     * already in use is not added; nor is a WearableDevice object that is already in the list.
      *
      * @param wearableDevice the WearableDevice to add.
      * @return true if the WearableDevice was added, false otherwise.
      */
     public boolean addWearableDeviceDevice(WearableDevice wearableDevice) {
-        return wearableList.add(wearableDevice);
+        if (!isValidId(wearableDevice.getId()) || positions.positionOf(wearableDevice) >= 0) {
+            return false;
+        }
+        wearableList.add(wearableDevice);
+        positions.add(wearableDevice);
+        indexDevice(wearableDevice);
+        ColumnarCatalogue columns = latestColumns.get();
+        if (columns != null) {
+            columns.add(wearableDevice);
+        }
+        changed();
+        if (journal != null) {
+            journal.logAdd(wearableDevice);
+            compactJournalIfDue();
+        }
+        return true;
+    }
+
+    /**
+     * Adds a collection of WearableDevices to the list in one go. Each ID is checked against the ID index, which
+     * already holds the list and every device added earlier in the batch, so adding n devices takes O(n) time however
+     * large the list is. Devices whose ID is already in use are rejected rather than added.
+     *
+     * @param wearableDevices the WearableDevices to add, in order.
+     * @return the number of WearableDevices added and the rows that were rejected.
+     */
+    public BulkImportResult addAll(Collection<? extends WearableDevice> wearableDevices) {
+        return ImportBatch.of(wearableDevices, this::addBatch);
+    }
+
+    /**
+     * Imports WearableDevices from CSV, one device per line, with the columns type, size, price, manufacturerName,
+     * material, modelName, id and then heartRateMonitor for a SmartBand or displayType for a SmartWatch. Lines that
+     * can't be read as a device, have a value the device would truncate or replace with a default, or whose ID is
+     * already in use, are rejected with the reason and the rest are still imported. The input is streamed, with the
+     * devices added a chunk at a time as they are read.
+     *
+     * @param in the CSV to import.
+     * @return the number of WearableDevices added and the lines that were rejected.
+     * @throws IOException if the input cannot be read.
+     */
+    public BulkImportResult importCsv(Reader in) throws IOException {
+        return ImportBatch.fromCsv(in, this::addBatch);
+    }
+
+    /**
+     * Imports WearableDevices from XML in the format save() writes. Devices are checked in the same way as CSV
+     * lines, so those with a value the device would truncate or replace with a default, or whose ID is already in
+     * use, are rejected and the rest are still imported. The input is streamed, with the devices added a chunk at a
+     * time as they are read; if the XML turns out to be malformed, the devices already added are deleted again
+     * before the exception is thrown, so nothing is imported.
+     *
+     * @param in the XML to import.
+     * @return the number of WearableDevices added and the devices that were rejected.
+     * @throws XMLStreamException if the XML is not well-formed or not in the format save() writes.
+     */
+    public BulkImportResult importXml(Reader in) throws XMLStreamException {
+        return ImportBatch.fromXml(in, this::addBatch, imported -> {
+            Set<WearableDevice> undo = Collections.newSetFromMap(new IdentityHashMap<>());
+            undo.addAll(imported);
+            deleteWearableDevicesIf(undo::contains);
+        });
+    }
+
+    /**
+     * Adds every device in a chunk of an import whose ID is free, growing the list once for the whole chunk. The
+     * journal is only considered for compaction once the whole chunk has been logged.
+     *
+     * @param batch the chunk of devices to add, which records the devices added and any duplicate IDs.
+     */
+    void addBatch(ImportBatch batch) {
+        boolean added = false;
+        if (wearableList instanceof ArrayList<WearableDevice> arrayList) {
+            arrayList.ensureCapacity(wearableList.size() + batch.size());
+        }
+        ColumnarCatalogue columns = latestColumns.get();
+        for (int i = 0; i < batch.size(); i++) {
+            WearableDevice techDev = batch.device(i);
+            if (!isValidId(techDev.getId())) {
+                batch.reject(batch.row(i), techDev.getId(), "Duplicate ID");
+                continue;
+            }
+            if (positions.positionOf(techDev) >= 0) {
+                // Only possible for devices without an ID; the indexes hold each device object once
+                batch.reject(batch.row(i), techDev.getId(), "Already in the list");
+                continue;
+            }
+            wearableList.add(techDev);
+            positions.add(techDev);
+            indexDevice(techDev);
+            if (columns != null) {
+                columns.add(techDev);
+            }
+            if (journal != null) {
+                journal.logAdd(techDev);
+            }
+            batch.imported(i);
+            added = true;
+        }
+        if (added) {
+            changed();
+            if (journal != null) {
+                compactJournalIfDue();
+            }
+        }
     }
 
     // Delete methods
@@ -51,7 +231,16 @@ public class WearableDeviceAPI implements ISerializer {
      */
     public WearableDevice deleteWearableDeviceByIndex(int index) {
         if (Utilities.isValidIndex(wearableList, index)) {
-            return wearableList.remove(index);
+            WearableDevice removed = wearableList.remove(index);
+            positions.remove(index);
+            unindexDevice(removed);
+            ColumnarCatalogue columns = latestColumns.get();
+            if (columns != null) {
+                columns.remove(index);
+            }
+            changed();
+            journalDelete(removed);
+            return removed;
         }
         return null;
     }
@@ -63,17 +252,65 @@ public class WearableDeviceAPI implements ISerializer {
      * @return the deleted WearableDevice, or null if no WearableDevice with the given ID is found.
      */
     public WearableDevice deleteWearableDeviceById(String id) {
-        /* To safely remove from a collection while iterating over it, you should use an iterator.
-        https://stackoverflow.com/questions/1196586/calling-remove-in-foreach-loop-in-java */
-        Iterator<WearableDevice> iterator = wearableList.iterator();
-        while (iterator.hasNext()) {
-            WearableDevice techDev = iterator.next();
-            if (techDev.getId().equalsIgnoreCase(id)) {
-                iterator.remove();
-                return techDev;
+        WearableDevice techDev = getWearableDeviceById(id);
+        if (techDev != null) {
+            removeFromList(techDev);
+            unindexDevice(techDev);
+            changed();
+            journalDelete(techDev);
+        }
+        return techDev;
+    }
+
+    /**
+     * Deletes every WearableDevice that matches a filter, e.g. every device from a discontinued manufacturer.
+     * The list is compacted in a single pass and the indexes are updated once for the whole batch, so this takes
+     * O(n) time however many devices are deleted.
+     *
+     * @param filter the condition the WearableDevices to delete must meet.
+     * @return the deleted WearableDevices, in list order; empty if none matched.
+     */
+    public List<WearableDevice> deleteWearableDevicesIf(Predicate<WearableDevice> filter) {
+        // The filter is run over the whole list first, so the list is left untouched if it throws
+        BitSet matches = new BitSet(wearableList.size());
+        for (int i = 0; i < wearableList.size(); i++) {
+            if (filter.test(wearableList.get(i))) {
+                matches.set(i);
             }
         }
-        return null;
+        List<WearableDevice> removed = new ArrayList<>(matches.cardinality());
+        if (matches.isEmpty()) {
+            return removed;
+        }
+        int kept = 0;
+        for (int i = 0; i < wearableList.size(); i++) {
+            WearableDevice techDev = wearableList.get(i);
+            if (matches.get(i)) {
+                removed.add(techDev);
+            } else {
+                wearableList.set(kept++, techDev);
+            }
+        }
+        wearableList.subList(kept, wearableList.size()).clear();
+        // From the end, so each position is still where the device was when it is removed
+        for (int i = matches.previousSetBit(matches.length() - 1); i >= 0; i = matches.previousSetBit(i - 1)) {
+            positions.remove(i);
+        }
+        unindexDevices(removed);
+        ColumnarCatalogue columns = latestColumns.get();
+        if (columns != null) {
+            columns.removeAll(matches);
+        }
+        changed();
+        if (journal != null) {
+            for (WearableDevice techDev : removed) {
+                if (techDev.getId() != null) {
+                    journal.logDelete(techDev.getId());
+                }
+            }
+            compactJournalIfDue();
+        }
+        return removed;
     }
 
     // Get methods
@@ -98,12 +335,50 @@ public class WearableDeviceAPI implements ISerializer {
      * @return the WearableDevice with the specified ID, or null if no such WearableDevice is found.
      */
     public WearableDevice getWearableDeviceById(String id) {
-        for (WearableDevice techDev : wearableList) {
-            if (techDev.getId().equalsIgnoreCase(id)) {
-                return techDev;
-            }
+        if (id == null) {
+            return null;
         }
-        return null;
+        return idIndex.get(indexKey(id));
+    }
+
+    /**
+     * Gets one page of the list, in list order. Only the page itself is copied, so the cost depends on the page
+     * size rather than the size of the list.
+     *
+     * @param offset the index of the first WearableDevice on the page.
+     * @param limit the maximum number of WearableDevices on the page.
+     * @return a new list of the WearableDevices on the page; empty if the offset is past the end of the list.
+     */
+    public List<WearableDevice> page(int offset, int limit) {
+        if (offset < 0 || offset >= wearableList.size() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        int end = (int) Math.min((long) offset + limit, wearableList.size());
+        return new ArrayList<>(wearableList.subList(offset, end));
+    }
+
+    /**
+     * Gets one page of WearableDevices in ID order (ignoring case), starting after the given cursor. Unlike an
+     * offset, the cursor is an ID rather than a position, so paging through the list carries on correctly when
+     * devices are added or deleted between pages: every device present for the whole walk is returned exactly once.
+     * Devices without an ID are not included, and the device whose ID is the cursor need not still be in the list.
+     *
+     * @param cursor the cursor from the previous page, or null for the first page.
+     * @param limit the maximum number of WearableDevices on the page; 0 or less gives an empty page that still
+     *              says whether there are more devices after the cursor.
+     * @return the page, with the cursor for the next page.
+     */
+    public DevicePage pageAfter(String cursor, int limit) {
+        Map<String, WearableDevice> remaining = cursor == null ? idOrder : idOrder.tailMap(indexKey(cursor), false);
+        // A tail map counts its size by walking it, so the page isn't sized from the remaining devices
+        List<WearableDevice> devices = new ArrayList<>(Math.max(Math.min(limit, 1024), 0));
+        Iterator<WearableDevice> iterator = remaining.values().iterator();
+        while (devices.size() < limit && iterator.hasNext()) {
+            devices.add(iterator.next());
+        }
+        boolean more = iterator.hasNext();
+        String nextCursor = !more ? null : devices.isEmpty() ? cursor : devices.get(devices.size() - 1).getId();
+        return new DevicePage(Collections.unmodifiableList(devices), nextCursor, more);
     }
 
     /**
@@ -115,6 +390,47 @@ public class WearableDeviceAPI implements ISerializer {
         return file.getName();
     }
 
+    /**
+     * Gets the format save() writes the WearableDevices in.
+     *
+     * @return the snapshot format.
+     */
+    public SnapshotFormat getSnapshotFormat() {
+        return snapshotFormat;
+    }
+
+    /**
+     * Sets the format save() writes the WearableDevices in. load() reads either format regardless.
+     *
+     * @param snapshotFormat the snapshot format to save in.
+     */
+    public void setSnapshotFormat(SnapshotFormat snapshotFormat) {
+        if (snapshotFormat != null) {
+            this.snapshotFormat = snapshotFormat;
+        }
+    }
+
+    /**
+     * Gets the number of shards the SHARDED snapshot format splits the WearableDevices into.
+     *
+     * @return the shard count.
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Sets the number of shards the SHARDED snapshot format splits the WearableDevices into. Shards are written and
+     * read in parallel, so this defaults to the number of processors.
+     *
+     * @param shardCount the new shard count; must be at least 1.
+     */
+    public void setShardCount(int shardCount) {
+        if (shardCount >= 1) {
+            this.shardCount = shardCount;
+        }
+    }
+
     // Read/reporting/list methods
 
     /**
@@ -126,11 +442,7 @@ public class WearableDeviceAPI implements ISerializer {
         if (wearableList.isEmpty()) {
             return "No WearableDevice Devices";
         } else {
-            String listOfWearableDevices = "";
-            for (int i = 0; i < wearableList.size(); i++) {
-                listOfWearableDevices += i + ": " + wearableList.get(i) + "\n";
-            }
-            return listOfWearableDevices;
+            return renderWearableDevices(techDev -> true);
         }
     }
 
@@ -143,12 +455,7 @@ public class WearableDeviceAPI implements ISerializer {
         if (wearableList.isEmpty()) {
             return "No WearableDevice Devices";
         } else {
-            String str = "";
-            for (WearableDevice techdev : wearableList) {
-                if (techdev instanceof SmartBand) {
-                    str += wearableList.indexOf(techdev) + ": " + techdev + "\n";
-                }
-            }
+            String str = smartBandCount == 0 ? "" : renderWearableDevices(techDev -> techDev instanceof SmartBand);
             if (str.isEmpty()) {
                 return "No Smart Bands";
             } else {
@@ -166,12 +473,7 @@ public class WearableDeviceAPI implements ISerializer {
         if (wearableList.isEmpty()) {
             return "No WearableDevice Devices";
         } else {
-            String str = "";
-            for (WearableDevice techdev : wearableList) {
-                if (techdev instanceof SmartWatch) {
-                    str += wearableList.indexOf(techdev) + ": " + techdev + "\n";
-                }
-            }
+            String str = smartWatchCount == 0 ? "" : renderWearableDevices(techDev -> techDev instanceof SmartWatch);
             if (str.isEmpty()) {
                 return "No Smart Watches";
             } else {
@@ -190,11 +492,8 @@ public class WearableDeviceAPI implements ISerializer {
         if (wearableList.isEmpty()) {
             return "No WearableDevice Devices";
         } else {
-            String str = "";
-            for (int i = 0; i < wearableList.size(); i++) {
-                if (wearableList.get(i).getPrice() > price)
-                    str += i + ": " + wearableList.get(i) + "\n";
-            }
+            // The price index answers "is there anything above this price" without a scan
+            String str = priceIndex.higherKey(Utilities.centsAtMost(price)) == null ? "" : renderRows(columns().rowsAbovePrice(price));
             if (str.isEmpty()) {
                 return "No WearableDevice more expensive than: " + price;
             } else {
@@ -213,11 +512,7 @@ public class WearableDeviceAPI implements ISerializer {
         if (wearableList.isEmpty()) {
             return "No WearableDevice Devices";
         } else {
-            String str = "";
-            for (int i = 0; i < wearableList.size(); i++) {
-                if (wearableList.get(i).getPrice() < price)
-                    str += i + ": " + wearableList.get(i) + "\n";
-            }
+            String str = priceIndex.lowerKey(Utilities.centsAtLeast(price)) == null ? "" : renderRows(columns().rowsBelowPrice(price));
             if (str.isEmpty()) {
                 return "No WearableDevice cheaper than: " + price;
             } else {
@@ -226,6 +521,56 @@ public class WearableDeviceAPI implements ISerializer {
         }
     }
 
+    /**
+     * Gets all WearableDevices with a price above the specified value, using the price index.
+     *
+     * @param price the price threshold (exclusive).
+     * @return a new list of the matching WearableDevices, cheapest first.
+     */
+    public List<WearableDevice> getWearableDevicesAbovePrice(double price) {
+        return flattenPriceRange(priceIndex.tailMap(Utilities.centsAtMost(price), false));
+    }
+
+    /**
+     * Gets all WearableDevices with a price below the specified value, using the price index.
+     *
+     * @param price the price threshold (exclusive).
+     * @return a new list of the matching WearableDevices, cheapest first.
+     */
+    public List<WearableDevice> getWearableDevicesBelowPrice(double price) {
+        return flattenPriceRange(priceIndex.headMap(Utilities.centsAtLeast(price), false));
+    }
+
+    /**
+     * Gets all WearableDevices with a price between the two values, using the price index.
+     *
+     * @param minPrice the lowest price to include (inclusive).
+     * @param maxPrice the highest price to include (inclusive).
+     * @return a new list of the matching WearableDevices, cheapest first, or an empty list if minPrice is above maxPrice.
+     */
+    public List<WearableDevice> getWearableDevicesBetweenPrices(double minPrice, double maxPrice) {
+        long minCents = Utilities.centsAtLeast(minPrice);
+        long maxCents = Utilities.centsAtMost(maxPrice);
+        if (minCents > maxCents) {
+            return new ArrayList<>();
+        }
+        return flattenPriceRange(priceIndex.subMap(minCents, true, maxCents, true));
+    }
+
+    /**
+     * Gets all WearableDevices by the specified manufacturer, using the manufacturer index.
+     *
+     * @param manufacturerName the name of the manufacturer, ignoring case.
+     * @return a new list of the WearableDevices by that manufacturer, in the order they were added.
+     */
+    public List<WearableDevice> getWearableDevicesByManufacturer(String manufacturerName) {
+        if (manufacturerName == null) {
+            return new ArrayList<>();
+        }
+        DeviceBucket byManufacturer = manufacturerIndex.get(indexKey(manufacturerName));
+        return byManufacturer == null ? new ArrayList<>() : new ArrayList<>(byManufacturer);
+    }
+
     /**
      * Lists all WearableDevices by the specified manufacturer.
      *
@@ -236,18 +581,51 @@ public class WearableDeviceAPI implements ISerializer {
         if (wearableList.isEmpty()) {
             return "No WearableDevice Devices";
         } else {
-            String str = "";
-            for (WearableDevice techdev : wearableList) {
-                if (techdev.getManufacturerName().equalsIgnoreCase(manufacturerName)) {
-                    str += techdev + "\n";
-                }
+            StringBuilder str = new StringBuilder();
+            for (WearableDevice techdev : getWearableDevicesByManufacturer(manufacturerName)) {
+                str.append(techdev).append('\n');
             }
             if (str.isEmpty()) {
                 return "No WearableDevices made by: " + manufacturerName;
             } else {
-                return str;
+                return str.toString();
+            }
+        }
+    }
+
+    /**
+     * Writes each WearableDevice matching the filter to the given output as a line of the form
+     * "index: description", in list order. Rows are streamed straight to the output, so a whole catalogue
+     * can be written to a Writer or System.out without building it up in memory first.
+     *
+     * @param out the output to write the rows to, e.g. a Writer, a PrintStream or a StringBuilder.
+     * @param filter the condition a WearableDevice must meet to be written.
+     * @return the number of WearableDevices written.
+     * @throws IOException if the output cannot be written to.
+     */
+    public int writeWearableDevices(Appendable out, Predicate<WearableDevice> filter) throws IOException {
+        return writeWearableDevices(out, filter, wearableList);
+    }
+
+    /**
+     * Writes each WearableDevice in the list matching the filter, in the format used by writeWearableDevices.
+     *
+     * @param out the output to write the rows to.
+     * @param filter the condition a WearableDevice must meet to be written.
+     * @param wearableDevices the WearableDevices to choose from.
+     * @return the number of WearableDevices written.
+     * @throws IOException if the output cannot be written to.
+     */
+    static int writeWearableDevices(Appendable out, Predicate<WearableDevice> filter, List<WearableDevice> wearableDevices) throws IOException {
+        int written = 0;
+        for (int i = 0; i < wearableDevices.size(); i++) {
+            WearableDevice techDev = wearableDevices.get(i);
+            if (filter.test(techDev)) {
+                out.append(String.valueOf(i)).append(": ").append(techDev.toString()).append('\n');
+                written++;
             }
         }
+        return written;
     }
 
     // Number methods
@@ -267,13 +645,7 @@ public class WearableDeviceAPI implements ISerializer {
      * @return the total number of SmartBands.
      */
     public int numberOfSmartBands() {
-        int count = 0;
-        for (WearableDevice techdev : wearableList) {
-            if (techdev instanceof SmartBand) {
-                count += 1;
-            }
-        }
-        return count;
+        return smartBandCount;
     }
 
     /**
@@ -282,13 +654,7 @@ public class WearableDeviceAPI implements ISerializer {
      * @return the total number of SmartWatches.
      */
     public int numberOfSmartWatches() {
-        int count = 0;
-        for (WearableDevice techdev : wearableList) {
-            if (techdev instanceof SmartWatch) {
-                count += 1;
-            }
-        }
-        return count;
+        return smartWatchCount;
     }
 
     /**
@@ -298,63 +664,238 @@ public class WearableDeviceAPI implements ISerializer {
      * @return the total number of WearableDevices by the specified manufacturer.
      */
     public int numberOfWearableDeviceByManufacturer(String manufacturerName) {
-        int count = 0;
-        for (WearableDevice techdev : wearableList) {
-            if (techdev.getManufacturerName().equalsIgnoreCase(manufacturerName)) {
-                count++;
-            }
+        if (manufacturerName == null) {
+            return 0;
         }
-        return count;
+        DeviceBucket byManufacturer = manufacturerIndex.get(indexKey(manufacturerName));
+        return byManufacturer == null ? 0 : byManufacturer.size();
+    }
+
+    /**
+     * Gets the number of WearableDevices of a given size, ignoring case.
+     *
+     * @param size the size to count.
+     * @return the number of WearableDevices of that size.
+     */
+    public int numberOfWearableDevicesBySize(String size) {
+        return columns().countWithSize(size);
+    }
+
+    /**
+     * Gets the number of SmartWatches with a given display type, ignoring case.
+     *
+     * @param displayType the display type to count.
+     * @return the number of SmartWatches with that display type.
+     */
+    public int numberOfSmartWatchesByDisplayType(String displayType) {
+        return smartWatchCount == 0 ? 0 : columns().countWithDisplayType(displayType);
+    }
+
+    /**
+     * Gets the number of SmartBands with a heart rate monitor.
+     *
+     * @return the number of SmartBands with a heart rate monitor.
+     */
+    public int numberOfSmartBandsWithHeartRateMonitor() {
+        return smartBandCount == 0 ? 0 : columns().countWithHeartRateMonitor();
+    }
+
+    /**
+     * Gets the average price of the WearableDevices in the list.
+     *
+     * @return the average price, or 0 if the list is empty.
+     */
+    public double averagePrice() {
+        return columns().averagePrice();
+    }
+
+    /**
+     * Gets the average price of the WearableDevices from one manufacturer.
+     *
+     * @param manufacturerName the manufacturer name, ignoring case.
+     * @return the average price, or 0 if there are no WearableDevices from that manufacturer.
+     */
+    public double averagePriceByManufacturer(String manufacturerName) {
+        return columns().averagePriceOfManufacturer(manufacturerName);
     }
 
     // Update methods
 
     /**
      * Takes an id, updates the item's details if the ID is present and the item is a SmartWatch.
+     * The SmartWatch is not changed in place: a changed copy replaces it in the list, so snapshots and readers
+     * never see a half-updated device.
      *
      * @param id the ID of the SmartWatch to update.
      * @param updatedDetails the new details of the SmartWatch.
-     * @return true if the SmartWatch was updated, false otherwise.
+     * @return true if the SmartWatch was updated, false if there is no SmartWatch with the ID or its new ID is already
+     * used by another WearableDevice.
      */
     public boolean updateSmartWatch(String id, SmartWatch updatedDetails) {
-        for (WearableDevice techDev : wearableList) {
-            if (techDev instanceof SmartWatch && techDev.getId().equalsIgnoreCase(id)) {
-                techDev.setSize(updatedDetails.getSize());
-                techDev.setPrice(updatedDetails.getPrice());
-                techDev.setManufacturerName(updatedDetails.getManufacturerName());
-                techDev.setMaterial(updatedDetails.getMaterial());
-                techDev.setModelName(updatedDetails.getModelName());
-                techDev.setId(updatedDetails.getId());
-                ((SmartWatch) techDev).setDisplayType(updatedDetails.getDisplayType());
-                return true;
+        WearableDevice techDev = getWearableDeviceById(id);
+        if (techDev instanceof SmartWatch smartWatch) {
+            SmartWatch replacement = smartWatch.copy();
+            replacement.setSize(updatedDetails.getSize());
+            replacement.setPriceCents(updatedDetails.getPriceCents());
+            replacement.setManufacturerName(updatedDetails.getManufacturerName());
+            replacement.setMaterial(updatedDetails.getMaterial());
+            replacement.setModelName(updatedDetails.getModelName());
+            replacement.setId(updatedDetails.getId());
+            replacement.setDisplayType(updatedDetails.getDisplayType());
+            if (isIdTakenByAnother(replacement.getId(), techDev)) {
+                return false;
             }
+            replaceDevice(techDev, replacement);
+            changed();
+            if (journal != null) {
+                journal.logUpdate(id, updatedDetails);
+                compactJournalIfDue();
+            }
+            return true;
         }
         return false;
     }
 
     /**
      * Takes an id, updates the item's details if the ID is present and the item is a SmartBand.
+     * The SmartBand is not changed in place: a changed copy replaces it in the list, so snapshots and readers
+     * never see a half-updated device.
      *
      * @param id the ID of the SmartBand to update.
      * @param updatedDetails the new details of the SmartBand.
-     * @return true if the SmartBand was updated, false otherwise.
+     * @return true if the SmartBand was updated, false if there is no SmartBand with the ID or its new ID is already
+     * used by another WearableDevice.
      */
     public boolean updateSmartBand(String id, SmartBand updatedDetails) {
-        for (WearableDevice techDev : wearableList) {
-            if (techDev instanceof SmartBand && techDev.getId().equalsIgnoreCase(id)) {
-                techDev.setSize(updatedDetails.getSize());
-                techDev.setPrice(updatedDetails.getPrice());
-                techDev.setManufacturerName(updatedDetails.getManufacturerName());
-                techDev.setMaterial(updatedDetails.getMaterial());
-                techDev.setModelName(updatedDetails.getModelName());
-                techDev.setId(updatedDetails.getId());
-                ((SmartBand) techDev).setHeartRateMonitor(updatedDetails.isHeartRateMonitor());
-                return true;
+        WearableDevice techDev = getWearableDeviceById(id);
+        if (techDev instanceof SmartBand smartBand) {
+            SmartBand replacement = smartBand.copy();
+            replacement.setSize(updatedDetails.getSize());
+            replacement.setPriceCents(updatedDetails.getPriceCents());
+            replacement.setManufacturerName(updatedDetails.getManufacturerName());
+            replacement.setMaterial(updatedDetails.getMaterial());
+            replacement.setModelName(updatedDetails.getModelName());
+            replacement.setId(updatedDetails.getId());
+            replacement.setHeartRateMonitor(updatedDetails.isHeartRateMonitor());
+            if (isIdTakenByAnother(replacement.getId(), techDev)) {
+                return false;
+            }
+            replaceDevice(techDev, replacement);
+            changed();
+            if (journal != null) {
+                journal.logUpdate(id, updatedDetails);
+                compactJournalIfDue();
             }
+            return true;
         }
         return false;
     }
 
+    /**
+     * Updates every WearableDevice that matches a filter in a single pass, e.g. to apply a price change to a whole
+     * range. The mutator is given a copy of each matching device, and the copies only replace the originals, in the
+     * list and the indexes together, once every one has been changed. Any field may be changed, including the
+     * price; if the mutator throws, the list is left as it was. Devices are never changed in place, so snapshots
+     * and readers never see a half-updated device. IDs must stay unique, so if the changes would give two devices
+     * the same ID, nothing is updated.
+     *
+     * @param filter the condition the WearableDevices to update must meet.
+     * @param mutator the change to make to each matching WearableDevice.
+     * @return the updated WearableDevices, in list order; empty if none matched or the changes would duplicate an ID.
+     */
+    public List<WearableDevice> updateWearableDevicesWhere(Predicate<WearableDevice> filter, Consumer<WearableDevice> mutator) {
+        BitSet matches = new BitSet(wearableList.size());
+        List<WearableDevice> previous = new ArrayList<>();
+        for (int i = 0; i < wearableList.size(); i++) {
+            if (filter.test(wearableList.get(i))) {
+                matches.set(i);
+                previous.add(wearableList.get(i));
+            }
+        }
+        List<WearableDevice> updated = new ArrayList<>(previous.size());
+        for (WearableDevice techDev : previous) {
+            WearableDevice replacement = techDev.copy();
+            mutator.accept(replacement);
+            updated.add(replacement);
+        }
+        if (updated.isEmpty() || !hasUniqueIds(previous, updated)) {
+            return new ArrayList<>();
+        }
+        replaceDevices(matches, previous, updated);
+        changed();
+        if (journal != null) {
+            // The journal replays the batch by each device's ID from before it was changed, all in one entry
+            List<String> ids = new ArrayList<>(updated.size());
+            List<WearableDevice> journaled = new ArrayList<>(updated.size());
+            for (int i = 0; i < updated.size(); i++) {
+                if (previous.get(i).getId() != null) {
+                    ids.add(previous.get(i).getId());
+                    journaled.add(updated.get(i));
+                }
+            }
+            journal.logUpdateAll(ids, journaled);
+            compactJournalIfDue();
+        }
+        return updated;
+    }
+
+    /**
+     * Swaps a batch of changed copies in for the originals, in the same positions in the list, removing every
+     * original from the indexes before any copy is added so IDs can move between devices in the batch.
+     *
+     * @param rows the positions of the originals in the list.
+     * @param previous the originals, in list order.
+     * @param updated the copies to put in their places, in the same order.
+     */
+    private void replaceDevices(BitSet rows, List<WearableDevice> previous, List<WearableDevice> updated) {
+        unindexDevices(previous);
+        ColumnarCatalogue columns = latestColumns.get();
+        int next = 0;
+        for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+            WearableDevice replacement = updated.get(next++);
+            wearableList.set(i, replacement);
+            positions.set(i, replacement);
+            if (columns != null) {
+                columns.set(i, replacement);
+            }
+        }
+        for (WearableDevice techDev : updated) {
+            indexDevice(techDev);
+        }
+    }
+
+    /**
+     * Re-applies a batch update read back from the journal, replacing each device whose ID is listed with its
+     * updated copy all at once, as updateWearableDevicesWhere() did.
+     *
+     * @param ids the ID each device had before the batch.
+     * @param updatedDevices the devices as they were after the batch, in the same order as the IDs.
+     */
+    private void replayUpdateAll(List<String> ids, List<WearableDevice> updatedDevices) {
+        Map<WearableDevice, WearableDevice> replacements = new IdentityHashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            WearableDevice techDev = getWearableDeviceById(ids.get(i));
+            if (techDev != null) {
+                replacements.put(techDev, updatedDevices.get(i));
+            }
+        }
+        if (replacements.isEmpty()) {
+            return;
+        }
+        BitSet rows = new BitSet(wearableList.size());
+        for (WearableDevice techDev : replacements.keySet()) {
+            rows.set(positions.positionOf(techDev));
+        }
+        List<WearableDevice> previous = new ArrayList<>(replacements.size());
+        List<WearableDevice> updated = new ArrayList<>(replacements.size());
+        for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+            previous.add(wearableList.get(i));
+            updated.add(replacements.get(wearableList.get(i)));
+        }
+        replaceDevices(rows, previous, updated);
+        changed();
+    }
+
     // Validation Methods
 
     /**
@@ -365,133 +906,171 @@ public class WearableDeviceAPI implements ISerializer {
      * @return true if the ID is valid, false otherwise.
      */
     public boolean isValidId(String id) {
-        for (WearableDevice techDev : wearableList) {
-            // Changed to ignore case as specified on Tutors
-            if (techDev.getId().equalsIgnoreCase(id))
-                return false;
-        }
-        return true;
+        // Changed to ignore case as specified on Tutors
+        return id == null || !idIndex.containsKey(indexKey(id));
     }
 
     // Sorting Methods
 
-    // https://www.upgrad.com/tutorials/software-engineering/java-tutorial/selection-sort-java/
-
     /**
-     * Sorts the list of WearableDevices by price in ascending order.
+     * Sorts the list of WearableDevices by price in ascending order. Devices with the same price keep their
+     * relative order.
      */
     public void sortByPriceAscending() {
-        for (int i = 0; i < wearableList.size() - 1; i++) {
-            int lowestIndex = i;
-            for (int j = i + 1; j < wearableList.size(); j++) {
-                if (wearableList.get(j).getPrice() < wearableList.get(lowestIndex).getPrice()) {
-                    lowestIndex = j;
-                }
-            }
-            swapWearableDevice(wearableList, lowestIndex, i);
+        sortWearableDevices(Comparator.comparingLong(WearableDevice::getPriceCents));
+        if (journal != null) {
+            journal.logSort(true);
+            compactJournalIfDue();
         }
     }
 
     /**
-     * Sorts the list of WearableDevices by price in descending order.
+     * Sorts the list of WearableDevices by price in descending order. Devices with the same price keep their
+     * relative order.
      */
     public void sortByPriceDescending() {
-        for (int i = 0; i < wearableList.size() - 1; i++) {
-            int highestIndex = i;
-            for (int j = i + 1; j < wearableList.size(); j++) {
-                if (wearableList.get(j).getPrice() > wearableList.get(highestIndex).getPrice()) {
-                    highestIndex = j;
-                }
-            }
-            swapWearableDevice(wearableList, highestIndex, i);
+        sortWearableDevices(Comparator.comparingLong(WearableDevice::getPriceCents).reversed());
+        if (journal != null) {
+            journal.logSort(false);
+            compactJournalIfDue();
+        }
+    }
+
+    /**
+     * Gets the list size at or above which sorting is done in parallel.
+     *
+     * @return the parallel sort threshold.
+     */
+    public int getParallelSortThreshold() {
+        return parallelSortThreshold;
+    }
+
+    /**
+     * Sets the list size at or above which sorting is done in parallel. Below it, a sequential sort is used,
+     * as splitting the work across threads costs more than it saves on small lists.
+     *
+     * @param parallelSortThreshold the new threshold; must be at least 1.
+     */
+    public void setParallelSortThreshold(int parallelSortThreshold) {
+        if (parallelSortThreshold >= 1) {
+            this.parallelSortThreshold = parallelSortThreshold;
         }
     }
 
     // Top 5 methods
 
     /**
-     * Gets the top five most expensive WearableDevices.
+     * Gets the top five most expensive WearableDevices. The list itself is not reordered.
      *
      * @return a list of the top five most expensive WearableDevices or null if the list is empty.
      */
     public List<WearableDevice> topFiveMostExpensiveWearableDevice() {
         if (!wearableList.isEmpty()) {
-            sortByPriceDescending();
-            if (wearableList.size() <= 5) {
-                return wearableList;
-            }
-            return wearableList.subList(0, 5);
+            return topK(5, techDev -> true, Comparator.comparingLong(WearableDevice::getPriceCents));
         } else {
             return null;
         }
     }
 
     /**
-     * Gets the top five most expensive SmartWatches.
+     * Gets the top five most expensive SmartWatches. The list itself is not reordered.
      *
      * @return a list of the top five most expensive SmartWatches or null if the list is empty.
      */
     public List<WearableDevice> topFiveMostExpensiveSmartWatch() {
         if (!wearableList.isEmpty()) {
-            sortByPriceDescending();
-            List<WearableDevice> topFiveMostExpensiveSmartWatches = new ArrayList<>();
-            for (WearableDevice techDev : wearableList) {
-                if (techDev instanceof SmartWatch) {
-                    topFiveMostExpensiveSmartWatches.add(techDev);
-                }
-                if (topFiveMostExpensiveSmartWatches.size() == 5) {
-                    break;
-                }
-            }
-            return topFiveMostExpensiveSmartWatches;
+            return topK(5, techDev -> techDev instanceof SmartWatch, Comparator.comparingLong(WearableDevice::getPriceCents));
         } else {
             return null;
         }
     }
 
     /**
-     * Gets the top five most expensive SmartBands.
+     * Gets the top five most expensive SmartBands. The list itself is not reordered.
      *
      * @return a list of the top five most expensive SmartBands or null if the list is empty.
      */
     public List<WearableDevice> topFiveMostExpensiveSmartBand() {
         if (!wearableList.isEmpty()) {
-            sortByPriceDescending();
-            List<WearableDevice> topFiveMostExpensiveSmartBands = new ArrayList<>();
-            for (WearableDevice techDev : wearableList) {
-                if (techDev instanceof SmartBand) {
-                    topFiveMostExpensiveSmartBands.add(techDev);
-                }
-                if (topFiveMostExpensiveSmartBands.size() == 5) {
-                    break;
-                }
-            }
-            return topFiveMostExpensiveSmartBands;
+            return topK(5, techDev -> techDev instanceof SmartBand, Comparator.comparingLong(WearableDevice::getPriceCents));
         } else {
             return null;
         }
     }
 
+    /**
+     * Gets the k greatest WearableDevices, according to the comparator, out of those matching the filter.
+     * This takes a single pass over the list, keeping the best k seen so far in a bounded min-heap, and
+     * does not reorder the list. Where devices compare equally, the one earlier in the list is preferred.
+     *
+     * @param k the maximum number of WearableDevices to return.
+     * @param filter the condition a WearableDevice must meet to be included.
+     * @param comparator the order to rank WearableDevices by; the greatest come first in the result.
+     * @return a new list of at most k WearableDevices, greatest first.
+     */
+    public List<WearableDevice> topK(int k, Predicate<WearableDevice> filter, Comparator<WearableDevice> comparator) {
+        return firstInOrder(wearableList, filter, comparator.reversed(), k);
+    }
+
     // Search methods
 
     /**
-     * Searches for SmartWatches with the specified screen type.
+     * Runs a query combining any number of conditions. Rather than scanning the whole list, the query starts from
+     * the most selective index its conditions allow (the ID, the manufacturer, the text indexes or the price range)
+     * and checks the remaining conditions against each candidate from there. When the results are ordered by price
+     * and the price index is used, the scan stops as soon as the page asked for is full; otherwise only
+     * offset + limit results are kept in order while scanning, rather than sorting every match.
      *
-     * @param screenType the screen type to search for.
-     * @return a string representation of the matching SmartWatches, or a message indicating no matches were found.
+     * @param query the conditions, order, offset and limit of the query.
+     * @return a new list of the matching WearableDevices, in the query's order.
      */
-    public String searchByScreenType(String screenType) {
-        String matchingModels = "";
-        for (WearableDevice techDev : wearableList) {
-            if (techDev instanceof SmartWatch) {
-                if (((SmartWatch) techDev).getDisplayType().equalsIgnoreCase(screenType)) {
-                    matchingModels += wearableList.indexOf(techDev) + ": " + techDev + "\n";
+    public List<WearableDevice> query(WearableDeviceQuery query) {
+        int offset = query.getOffset();
+        int limit = query.getLimit();
+        List<WearableDevice> results = new ArrayList<>();
+        if (limit == 0) {
+            return results;
+        }
+
+        QueryCandidates candidates = queryCandidates(query);
+        if (query.getOrder() == null || candidates.priceOrdered) {
+            // The candidates are already in the order asked for, so the page can be cut out as they are scanned
+            int skipped = 0;
+            for (WearableDevice techDev : candidates.devices) {
+                if (!query.matches(techDev)) {
+                    continue;
+                }
+                if (skipped < offset) {
+                    skipped++;
+                } else {
+                    results.add(techDev);
+                    if (results.size() == limit) {
+                        break;
+                    }
                 }
             }
+            return results;
         }
-        if (matchingModels.equals("")) {
-            return "No SmartWatches match your search";
-        } else {
+
+        int wanted = limit == Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+        List<WearableDevice> ordered = firstInOrder(candidates.devices, query::matches, query.getOrder(), wanted);
+        if (offset < ordered.size()) {
+            results.addAll(ordered.subList(offset, ordered.size()));
+        }
+        return results;
+    }
+
+    /**
+     * Searches for SmartWatches with the specified screen type.
+     *
+     * @param screenType the screen type to search for.
+     * @return a string representation of the matching SmartWatches, or a message indicating no matches were found.
+     */
+    public String searchByScreenType(String screenType) {
+        String matchingModels = smartWatchCount == 0 ? "" : renderRows(columns().rowsWithDisplayType(screenType));
+        if (matchingModels.isEmpty()) {
+            return "No SmartWatches match your search";
+        } else {
             return matchingModels;
         }
     }
@@ -502,15 +1081,8 @@ public class WearableDeviceAPI implements ISerializer {
      * @return a string containing matching WearableDevices, or a message indicating no matches were found.
      */
     public String searchForHeartMonitors() {
-        String matchingModels = "";
-        for (WearableDevice techDev : wearableList) {
-            if (techDev instanceof SmartBand) {
-                if (((SmartBand) techDev).isHeartRateMonitor()) {
-                    matchingModels += wearableList.indexOf(techDev) + ": " + techDev + "\n";
-                }
-            }
-        }
-        if (matchingModels.equals("")) {
+        String matchingModels = smartBandCount == 0 ? "" : renderRows(columns().rowsWithHeartRateMonitor());
+        if (matchingModels.isEmpty()) {
             return "No SmartBands match your search";
         } else {
             return matchingModels;
@@ -524,13 +1096,9 @@ public class WearableDeviceAPI implements ISerializer {
      * @return a string containing matching WearableDevices, or a message indicating no matches were found.
      */
     public String searchBySize(String size) {
-        String matchingModels = "";
-        for (WearableDevice techdev : wearableList) {
-            if (techdev.getSize().toUpperCase().contains(size.toUpperCase())) {
-                matchingModels += wearableList.indexOf(techdev) + ": " + techdev + "\n";
-            }
-        }
-        if (matchingModels.equals("")) {
+        Set<WearableDevice> matches = sizeIndex.search(size);
+        String matchingModels = matches.isEmpty() ? "" : renderWearableDevices(matches::contains);
+        if (matchingModels.isEmpty()) {
             return "No WearableDevices match your search";
         } else {
             return matchingModels;
@@ -544,13 +1112,25 @@ public class WearableDeviceAPI implements ISerializer {
      * @return a string containing matching WearableDevices, or a message indicating no matches were found.
      */
     public String searchByMaterial(String material) {
-        String matchingModels = "";
-        for (WearableDevice techdev : wearableList) {
-            if (techdev.getMaterial().toUpperCase().contains(material.toUpperCase())) {
-                matchingModels += wearableList.indexOf(techdev) + ": " + techdev + "\n";
-            }
+        Set<WearableDevice> matches = materialIndex.search(material);
+        String matchingModels = matches.isEmpty() ? "" : renderWearableDevices(matches::contains);
+        if (matchingModels.isEmpty()) {
+            return "No WearableDevices match your search";
+        } else {
+            return matchingModels;
         }
-        if (matchingModels.equals("")) {
+    }
+
+    /**
+     * Searches for WearableDevices with the specified model name.
+     *
+     * @param modelName the model name to search for.
+     * @return a string containing matching WearableDevices, or a message indicating no matches were found.
+     */
+    public String searchByModelName(String modelName) {
+        Set<WearableDevice> matches = modelNameIndex.search(modelName);
+        String matchingModels = matches.isEmpty() ? "" : renderWearableDevices(matches::contains);
+        if (matchingModels.isEmpty()) {
             return "No WearableDevices match your search";
         } else {
             return matchingModels;
@@ -560,52 +1140,857 @@ public class WearableDeviceAPI implements ISerializer {
     // Persistence methods
 
     /**
-     * The load method uses the XStream component to read all the models.WearableDevice objects from the wearabledevices.xml
-     * file stored on the hard disk.  The read objects are loaded into the wearableList ArrayList
+     * The load method reads all the models.WearableDevice objects from the file stored on the hard disk into the
+     * wearableList ArrayList. Binary snapshots and sharded snapshot manifests are recognised by their magic numbers;
+     * anything else is read as XML.
+     * XML is pull-parsed one device at a time, so only the devices themselves are held in memory. XML files using
+     * XStream features the streaming reader doesn't support are read with XStream instead.
      *
      * @throws Exception An exception is thrown if an error occurred during the load e.g. a missing file.
      */
-    @SuppressWarnings("unchecked")
     public void load() throws Exception {
-        //list of classes that you wish to include in the serialisation, separated by a comma
-        Class<?>[] classes = new Class[]{SmartBand.class, SmartWatch.class, WearableDevice.class};
+        finishInterruptedSave();
+        List<WearableDevice> loaded = new ArrayList<>();
+        int magic = BinarySnapshot.readMagic(this.file);
+        if (magic == BinarySnapshot.MAGIC) {
+            BinarySnapshot.read(this.file, loaded);
+        } else if (magic == ShardedSnapshot.MAGIC) {
+            ShardedSnapshot.read(this.file, loaded);
+        } else {
+            try (Reader in = new BufferedReader(new FileReader(this.file))) {
+                WearableDeviceXmlStream.read(in, loaded::add);
+            } catch (XMLStreamException e) {
+                loaded = loadWithXStream();
+            }
+        }
+        wearableList = loaded;
+        rebuildIndexes();
+        changed();
+        replayJournal();
+    }
 
-        //setting up the xstream object with default security and the above classes
-        XStream xstream = new XStream(new DomDriver());
-        XStream.setupDefaultSecurity(xstream);
-        xstream.allowTypes(classes);
+    /**
+     * The save method writes all the objects in the wearableList ArrayList to the file stored on the hard disk,
+     * in the current snapshot format. XML is written one device at a time, in the same format XStream uses.
+     * While journaling is enabled, the journal is rotated first and the snapshot replaces the file along with the
+     * journal segment it covers, as described at rotateJournal().
+     *
+     * @throws Exception An exception is thrown if an error occurred during the save e.g. drive is full.
+     */
+    public void save() throws Exception {
+        if (journal != null) {
+            writeRotatedSnapshot(rotateJournal());
+            return;
+        }
+        writeSnapshot(snapshot());
+        // Everything in the journal is now in the snapshot
+        discardJournal();
+    }
 
-        //doing the actual serialisation to an XML file
-        ObjectInputStream in = xstream.createObjectInputStream(new FileReader(this.file));
-        wearableList = (List<WearableDevice>) in.readObject();
-        in.close();
+    /**
+     * Gets an immutable snapshot of the WearableDevices as they are now. The snapshot can be iterated for as long as
+     * needed, even while the list is being changed. Snapshots are only copied when something has changed since the
+     * last one was taken, so repeated calls between changes are cheap.
+     *
+     * @return a snapshot of the current list.
+     */
+    public CatalogueSnapshot snapshot() {
+        CatalogueSnapshot current = latestSnapshot.get();
+        if (current == null || current.version() != version) {
+            current = new CatalogueSnapshot(version, List.copyOf(wearableList));
+            latestSnapshot.set(current);
+        }
+        return current;
     }
 
     /**
-     * The save method uses the XStream component to write all the objects in the wearableList ArrayList
-     * to the wearabledevices.xml file stored on the hard disk.
+     * Writes a snapshot to the file in the current snapshot format. The snapshot is written to a temporary file
+     * first and then renamed over the file, so a save that fails part way through leaves the previous file intact.
      *
+     * @param snapshot the snapshot to write.
      * @throws Exception An exception is thrown if an error occurred during the save e.g. drive is full.
      */
-    public void save() throws Exception {
-        XStream xstream = new XStream(new DomDriver());
-        ObjectOutputStream out = xstream.createObjectOutputStream(new FileWriter(this.file));
-        out.writeObject(wearableList);
-        out.close();
+    void writeSnapshot(CatalogueSnapshot snapshot) throws Exception {
+        // A snapshot left waiting by an interrupted rotated save is older than this one, so it must not be installed later
+        finishInterruptedSave();
+        writeSnapshot(snapshot, this.file);
+    }
+
+    /**
+     * Writes a snapshot to the given file in the current snapshot format, through a temporary file renamed over it.
+     *
+     * @param snapshot the snapshot to write.
+     * @param target the file to write the snapshot to.
+     * @throws Exception An exception is thrown if an error occurred during the save e.g. drive is full.
+     */
+    void writeSnapshot(CatalogueSnapshot snapshot, File target) throws Exception {
+        if (snapshotFormat == SnapshotFormat.SHARDED) {
+            // The manifest is the only file that is replaced, and ShardedSnapshot renames it into place itself
+            ShardedSnapshot.write(target, snapshot.wearableDevices(), shardCount);
+            return;
+        }
+        File tempFile = new File(target.getPath() + ".tmp");
+        try {
+            if (snapshotFormat == SnapshotFormat.BINARY) {
+                BinarySnapshot.write(tempFile, snapshot.wearableDevices());
+            } else {
+                try (Writer out = new BufferedWriter(new FileWriter(tempFile))) {
+                    WearableDeviceXmlStream.write(out, snapshot.wearableDevices());
+                }
+            }
+            Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * Starts a save while journaling is enabled. Takes a snapshot, then renames the journal to the next numbered
+     * segment and reopens it empty, so later changes are journaled apart from the ones the snapshot already has.
+     * Nothing is written but the journal's last entries, so this is quick however long the list is; the snapshot
+     * itself is written by writeRotatedSnapshot(), and until that finishes load() replays the segments on top of
+     * the previous file.
+     *
+     * @return the snapshot to pass to writeRotatedSnapshot().
+     * @throws IOException if the journal cannot be synced, renamed or reopened.
+     */
+    CatalogueSnapshot rotateJournal() throws IOException {
+        // The segments left by an earlier save that never finished must not outlive its snapshot
+        finishInterruptedSave();
+        CatalogueSnapshot snapshot = snapshot();
+        // Not through disableJournal() and enableJournal(), which subclasses may lock around
+        closeJournal();
+        try {
+            List<File> segments = journalSegments();
+            long segment = segments.isEmpty() ? 0 : segmentNumber(segments.get(segments.size() - 1)) + 1;
+            Files.move(journalFile().toPath(), segmentFile(segment).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // If the rename failed, the journal carries on where it left off
+            openJournal(journalGroupCommitSize);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Finishes a save started by rotateJournal(). The snapshot is written in full next to the file, then the journal
+     * segments are deleted and the snapshot renamed over the file. Once the snapshot is complete the save can
+     * always be finished, so a load() that finds it does so rather than replaying the segments.
+     *
+     * @param snapshot the snapshot returned by rotateJournal().
+     * @throws Exception An exception is thrown if an error occurred during the save e.g. drive is full.
+     */
+    void writeRotatedSnapshot(CatalogueSnapshot snapshot) throws Exception {
+        writeSnapshot(snapshot, nextSnapshotFile());
+        finishInterruptedSave();
+    }
+
+    /**
+     * Installs a snapshot written by writeRotatedSnapshot() that hasn't replaced the file yet, if there is one,
+     * deleting the journal segments it covers and, for a sharded snapshot, the shards of the file it replaces.
+     *
+     * @throws IOException if a segment cannot be deleted or the snapshot cannot be renamed.
+     */
+    private void finishInterruptedSave() throws IOException {
+        File nextFile = nextSnapshotFile();
+        if (!nextFile.exists()) {
+            return;
+        }
+        for (File segment : journalSegments()) {
+            Files.deleteIfExists(segment.toPath());
+        }
+        List<File> previousShards = ShardedSnapshot.shardsOf(this.file);
+        Files.move(nextFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        ShardedSnapshot.deleteAll(previousShards);
+    }
+
+    /**
+     * Gets the current version of the list, which increases every time the list is changed.
+     *
+     * @return the current version.
+     */
+    long currentVersion() {
+        return version;
+    }
+
+    /**
+     * Empties the journal, or deletes a journal file left over from when journaling was last enabled.
+     *
+     * @throws IOException if the journal cannot be emptied or deleted.
+     */
+    void discardJournal() throws IOException {
+        for (File segment : journalSegments()) {
+            Files.deleteIfExists(segment.toPath());
+        }
+        if (journal != null) {
+            journal.reset();
+        } else {
+            Files.deleteIfExists(journalFile().toPath());
+        }
+    }
+
+    /**
+     * Checks whether changes are currently being journaled.
+     *
+     * @return true if journaling is enabled, false otherwise.
+     */
+    boolean isJournalEnabled() {
+        return journal != null;
+    }
+
+    /**
+     * Starts journaling changes. From now on every add, update, delete and sort is appended to a journal file
+     * next to the data file, so persisting a change costs time in proportion to the change rather than to the
+     * whole list. load() replays the journal on top of the last snapshot, and save() compacts it into a fresh
+     * snapshot; this also happens automatically once the journal grows past the compaction threshold.
+     * <p>
+     * While journaling is enabled, the mutation methods throw UncheckedIOException if the journal cannot be written.
+     *
+     * @param groupCommitSize the number of changes to write between each fsync, or 0 to leave flushing the journal
+     *                        to the operating system.
+     * @throws IOException if the journal cannot be opened.
+     */
+    public void enableJournal(int groupCommitSize) throws IOException {
+        disableJournal();
+        openJournal(groupCommitSize);
+    }
+
+    /**
+     * Stops journaling changes, syncing and closing the journal. The journal file is kept until the next save().
+     *
+     * @throws IOException if the journal cannot be synced or closed.
+     */
+    public void disableJournal() throws IOException {
+        closeJournal();
+    }
+
+    private void openJournal(int groupCommitSize) throws IOException {
+        journal = DeviceJournal.open(journalFile(), groupCommitSize);
+        journalGroupCommitSize = groupCommitSize;
+    }
+
+    private void closeJournal() throws IOException {
+        if (journal != null) {
+            try {
+                journal.sync();
+            } finally {
+                journal.close();
+                journal = null;
+            }
+        }
+    }
+
+    /**
+     * Forces every change journaled so far to disk, regardless of the group commit size.
+     *
+     * @throws IOException if the journal cannot be synced.
+     */
+    public void syncJournal() throws IOException {
+        if (journal != null) {
+            journal.sync();
+        }
+    }
+
+    /**
+     * Sets the journal size, in bytes, past which the journal is compacted into a fresh snapshot.
+     *
+     * @param journalCompactionThreshold the threshold in bytes, or 0 to only compact when save() is called.
+     */
+    public void setJournalCompactionThreshold(long journalCompactionThreshold) {
+        if (journalCompactionThreshold >= 0) {
+            this.journalCompactionThreshold = journalCompactionThreshold;
+        }
+    }
+
+    /**
+     * Gets the name of the journal file changes are appended to while journaling is enabled.
+     *
+     * @return the name of the journal file.
+     */
+    public String journalFileName() {
+        return journalFile().getName();
+    }
+
+    /**
+     * Writes all the WearableDevices to a fixed-layout catalogue file, which MappedCatalogue.open() can map into
+     * memory to serve read-only queries without loading the devices first.
+     *
+     * @param catalogueFile the file to write the catalogue to.
+     * @throws IOException if the file cannot be written, or a device has a field too long for the catalogue layout.
+     */
+    public void exportCatalogue(File catalogueFile) throws IOException {
+        MappedCatalogue.write(catalogueFile, wearableList);
+    }
+
+    /**
+     * Reads the file using the XStream component, which builds the whole document in memory. This is only used
+     * for files the streaming reader can't handle.
+     *
+     * @return the WearableDevices read from the file.
+     * @throws Exception An exception is thrown if an error occurred during the load e.g. a missing file.
+     */
+    @SuppressWarnings("unchecked")
+    private List<WearableDevice> loadWithXStream() throws Exception {
+        try (ObjectInputStream in = XStreamHolder.XSTREAM.createObjectInputStream(new FileReader(this.file))) {
+            return new ArrayList<>((List<WearableDevice>) in.readObject());
+        }
+    }
+
+    /**
+     * Holds the one XStream instance every load shares. Setting XStream up is expensive, so it is only done the first
+     * time it is needed; the JVM initialises this class at most once, even when several threads ask for it at the
+     * same time, and a configured XStream is safe to use from many threads.
+     */
+    private static final class XStreamHolder {
+        private static final XStream XSTREAM = createXStream();
+
+        private static XStream createXStream() {
+            //list of classes that you wish to include in the serialisation, separated by a comma
+            Class<?>[] classes = new Class[]{SmartBand.class, SmartWatch.class, WearableDevice.class};
+
+            //setting up the xstream object with default security and the above classes
+            XStream xstream = new XStream(new DomDriver());
+            XStream.setupDefaultSecurity(xstream);
+            xstream.allowTypes(classes);
+
+            // The devices are read field by field rather than through reflection
+            xstream.registerConverter(new WearableDeviceConverter());
+            return xstream;
+        }
+    }
+
+    /**
+     * Renders the WearableDevices matching the filter into a String, in the format used by writeWearableDevices.
+     *
+     * @param filter the condition a WearableDevice must meet to be included.
+     * @return the rendered WearableDevices, or an empty String if none match.
+     */
+    private String renderWearableDevices(Predicate<WearableDevice> filter) {
+        StringBuilder str = new StringBuilder();
+        try {
+            writeWearableDevices(str, filter);
+        } catch (IOException e) {
+            // A StringBuilder never throws IOException
+            throw new UncheckedIOException(e);
+        }
+        return str.toString();
+    }
+
+    /**
+     * Renders the WearableDevices in the given rows of the columns, in the format used by writeWearableDevices.
+     * The rows are positions in the list, so each device is looked up in the list and listed under the same index
+     * as it would be by renderWearableDevices.
+     *
+     * @param rows the rows to render.
+     * @return the rendered WearableDevices, or an empty String if there are no rows.
+     */
+    private String renderRows(BitSet rows) {
+        StringBuilder str = new StringBuilder();
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            str.append(row).append(": ").append(wearableList.get(row).toString()).append('\n');
+        }
+        return str.toString();
+    }
+
+    /**
+     * Gets the column-oriented copy of the list, building it if it hasn't been built since the list was last
+     * loaded or sorted. Adds, updates and deletes change the columns along with the list, so they stay current.
+     *
+     * @return the columns for the current list.
+     */
+    private ColumnarCatalogue columns() {
+        ColumnarCatalogue columns = latestColumns.get();
+        if (columns == null) {
+            // Readers may race to build the columns; any of their copies will do
+            columns = ColumnarCatalogue.of(wearableList);
+            latestColumns.set(columns);
+        }
+        return columns;
+    }
+
+    // Journal methods
+
+    private File journalFile() {
+        return new File(file.getPath() + ".journal");
+    }
+
+    private File segmentFile(long segment) {
+        return new File(journalFile().getPath() + "." + segment);
+    }
+
+    private File nextSnapshotFile() {
+        return new File(file.getPath() + ".next");
+    }
+
+    /**
+     * Lists the journal segments rotated out by saves that haven't finished, oldest first.
+     *
+     * @return the segment files, in the order their changes were made.
+     */
+    private List<File> journalSegments() {
+        String prefix = journalFile().getName() + ".";
+        File[] segments = file.getAbsoluteFile().getParentFile().listFiles((dir, name) ->
+                name.startsWith(prefix) && name.length() > prefix.length()
+                        && name.substring(prefix.length()).chars().allMatch(Character::isDigit));
+        if (segments == null) {
+            return new ArrayList<>();
+        }
+        List<File> sorted = new ArrayList<>(Arrays.asList(segments));
+        sorted.sort(Comparator.comparingLong(this::segmentNumber));
+        return sorted;
+    }
+
+    private long segmentNumber(File segment) {
+        return Long.parseLong(segment.getName().substring(journalFile().getName().length() + 1));
+    }
+
+    private void journalDelete(WearableDevice techDev) {
+        if (journal != null && techDev.getId() != null) {
+            journal.logDelete(techDev.getId());
+            compactJournalIfDue();
+        }
+    }
+
+    /**
+     * Compacts the journal into a fresh snapshot once it has grown past the compaction threshold.
+     */
+    private void compactJournalIfDue() {
+        if (journalCompactionThreshold > 0 && journal.size() >= journalCompactionThreshold) {
+            compactJournal();
+        }
+    }
+
+    /**
+     * Compacts the journal by saving a fresh snapshot. This is called from inside the method that made the change,
+     * so subclasses may override it to compact later instead.
+     */
+    void compactJournal() {
+        try {
+            save();
+        } catch (Exception e) {
+            // Every change is still in the journal, so nothing is lost; compaction is retried on the next change
+        }
+    }
+
+    /**
+     * Re-applies the changes in the journal file and any segments rotated out of it, if there are any, on top of
+     * the snapshot just loaded.
+     *
+     * @throws IOException if the journal cannot be read.
+     */
+    private void replayJournal() throws IOException {
+        // Segments left by a save that never finished hold the changes made before the journal's
+        List<File> journalFiles = journalSegments();
+        if (journalFile().exists()) {
+            journalFiles.add(journalFile());
+        }
+        // The changes being replayed are already in the journal, so they mustn't be logged again
+        DeviceJournal activeJournal = journal;
+        journal = null;
+        try {
+            for (File journalFile : journalFiles) {
+                replayJournal(journalFile);
+            }
+        } finally {
+            journal = activeJournal;
+        }
+    }
+
+    private void replayJournal(File journalFile) throws IOException {
+        DeviceJournal.replay(journalFile, new DeviceJournal.Replayer() {
+            public void added(WearableDevice wearableDevice) {
+                addWearableDeviceDevice(wearableDevice);
+            }
+
+            public void deleted(String id) {
+                deleteWearableDeviceById(id);
+            }
+
+            public void updated(String id, WearableDevice updatedDetails) {
+                if (updatedDetails instanceof SmartBand smartBand) {
+                    updateSmartBand(id, smartBand);
+                } else if (updatedDetails instanceof SmartWatch smartWatch) {
+                    updateSmartWatch(id, smartWatch);
+                }
+            }
+
+            public void updatedAll(List<String> ids, List<WearableDevice> updatedDevices) {
+                replayUpdateAll(ids, updatedDevices);
+            }
+
+            public void sorted(boolean ascending) {
+                if (ascending) {
+                    sortByPriceAscending();
+                } else {
+                    sortByPriceDescending();
+                }
+            }
+        });
+    }
+
+    // Index methods
+
+    /**
+     * Normalises an ID or manufacturer name so that values differing only in case share the same index key.
+     *
+     * @param value the ID or name to normalise.
+     * @return the index key for the value.
+     */
+    private static String indexKey(String value) {
+        return value.toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds a WearableDevice to the indexes. If two devices share an ID, the first one indexed is kept.
+     *
+     * @param techDev the WearableDevice to index.
+     */
+    private void indexDevice(WearableDevice techDev) {
+        if (techDev.getId() != null) {
+            idIndex.putIfAbsent(indexKey(techDev.getId()), techDev);
+            idOrder.putIfAbsent(indexKey(techDev.getId()), techDev);
+        }
+        priceIndex.computeIfAbsent(techDev.getPriceCents(), price -> new DeviceBucket()).add(techDev);
+        manufacturerIndex.computeIfAbsent(indexKey(techDev.getManufacturerName()), name -> new DeviceBucket()).add(techDev);
+        sizeIndex.add(techDev.getSize(), techDev);
+        materialIndex.add(techDev.getMaterial(), techDev);
+        modelNameIndex.add(techDev.getModelName(), techDev);
+        if (techDev instanceof SmartBand) {
+            smartBandCount++;
+        } else if (techDev instanceof SmartWatch) {
+            smartWatchCount++;
+        }
+    }
+
+    /**
+     * Removes a WearableDevice from the indexes.
+     *
+     * @param techDev the WearableDevice to remove from the indexes.
+     */
+    private void unindexDevice(WearableDevice techDev) {
+        if (techDev.getId() != null) {
+            idIndex.remove(indexKey(techDev.getId()), techDev);
+            idOrder.remove(indexKey(techDev.getId()), techDev);
+        }
+        sizeIndex.remove(techDev.getSize(), techDev);
+        materialIndex.remove(techDev.getMaterial(), techDev);
+        modelNameIndex.remove(techDev.getModelName(), techDev);
+        DeviceBucket samePrice = priceIndex.get(techDev.getPriceCents());
+        if (samePrice != null && samePrice.remove(techDev) && samePrice.isEmpty()) {
+            priceIndex.remove(techDev.getPriceCents());
+        }
+        String manufacturerKey = indexKey(techDev.getManufacturerName());
+        DeviceBucket sameManufacturer = manufacturerIndex.get(manufacturerKey);
+        if (sameManufacturer != null && sameManufacturer.remove(techDev)) {
+            if (sameManufacturer.isEmpty()) {
+                manufacturerIndex.remove(manufacturerKey);
+            }
+            if (techDev instanceof SmartBand) {
+                smartBandCount--;
+            } else if (techDev instanceof SmartWatch) {
+                smartWatchCount--;
+            }
+        }
+    }
+
+    /**
+     * Removes a batch of WearableDevices from the indexes. The price and manufacturer groups remove each device in
+     * O(1) time, so this is linear in the size of the batch however large the groups it touches are.
+     *
+     * @param techDevs the WearableDevices to remove from the indexes.
+     */
+    private void unindexDevices(List<WearableDevice> techDevs) {
+        for (WearableDevice techDev : techDevs) {
+            unindexDevice(techDev);
+        }
+    }
+
+    /**
+     * Rebuilds the indexes from scratch, e.g. after the list has been replaced by a load.
+     */
+    private void rebuildIndexes() {
+        idIndex.clear();
+        idOrder.clear();
+        priceIndex.clear();
+        manufacturerIndex.clear();
+        sizeIndex.clear();
+        materialIndex.clear();
+        modelNameIndex.clear();
+        smartBandCount = 0;
+        smartWatchCount = 0;
+        for (WearableDevice techDev : wearableList) {
+            indexDevice(techDev);
+        }
+        positions.reset(wearableList);
+        latestColumns.set(null);
+    }
+
+    /**
+     * Collects the WearableDevices from a range of the price index into a single list.
+     *
+     * @param priceRange the part of the price index to collect.
+     * @return a new list of the WearableDevices in the range, in price order.
+     */
+    private static List<WearableDevice> flattenPriceRange(Map<Long, DeviceBucket> priceRange) {
+        List<WearableDevice> matches = new ArrayList<>();
+        for (DeviceBucket samePrice : priceRange.values()) {
+            matches.addAll(samePrice);
+        }
+        return matches;
     }
 
     /**
-     * Swaps the positions of two WearableDevices in the list.
+     * The WearableDevices a query needs to check, and whether they are already in the query's price order.
+     */
+    private static final class QueryCandidates {
+        private final Iterable<WearableDevice> devices;
+        private final boolean priceOrdered;
+
+        private QueryCandidates(Iterable<WearableDevice> devices, boolean priceOrdered) {
+            this.devices = devices;
+            this.priceOrdered = priceOrdered;
+        }
+    }
+
+    /**
+     * Picks the smallest set of candidates a query can be answered from: the device with the queried ID, the
+     * queried manufacturer's devices, the devices matching one of its text conditions, the devices in the queried
+     * price range, or failing those the whole list.
+     * Price ranges are only counted as far as the best alternative, so a wide range costs no more to rule out
+     * than a narrow one.
      *
-     * @param wearableList the list of WearableDevices.
-     * @param i the index of the first WearableDevice.
-     * @param j the index of the second WearableDevice.
+     * @param query the query to find candidates for.
+     * @return the candidates.
      */
-    private void swapWearableDevice(List<WearableDevice> wearableList, int i, int j) {
-        WearableDevice smaller = wearableList.get(i);
-        WearableDevice bigger = wearableList.get(j);
+    private QueryCandidates queryCandidates(WearableDeviceQuery query) {
+        if (query.getId() != null) {
+            WearableDevice techDev = getWearableDeviceById(query.getId());
+            return new QueryCandidates(techDev == null ? List.of() : List.of(techDev), true);
+        }
+
+        Iterable<WearableDevice> best = wearableList;
+        int bestSize = wearableList.size();
+        boolean bestPriceOrdered = false;
+        if (query.getManufacturerName() != null) {
+            Collection<WearableDevice> sameManufacturer = manufacturerIndex.getOrDefault(indexKey(query.getManufacturerName()), new DeviceBucket());
+            best = sameManufacturer;
+            bestSize = sameManufacturer.size();
+        }
+        Set<WearableDevice> textMatches = smallestTextMatches(query);
+        if (textMatches != null && textMatches.size() < bestSize) {
+            best = textMatches;
+            bestSize = textMatches.size();
+        }
+
+        if (query.hasPriceRange() || query.getPriceOrder() != 0) {
+            if (query.getMinPriceCents() > query.getMaxPriceCents()) {
+                return new QueryCandidates(List.of(), true);
+            }
+            NavigableMap<Long, DeviceBucket> priceRange = priceIndex.subMap(
+                    query.getMinPriceCents(), true, query.getMaxPriceCents(), true);
+            if (query.getPriceOrder() < 0) {
+                priceRange = priceRange.descendingMap();
+            }
+            int rangeSize = 0;
+            for (DeviceBucket samePrice : priceRange.values()) {
+                rangeSize += samePrice.size();
+                if (rangeSize >= bestSize) {
+                    break;
+                }
+            }
+            // On a tie the price range wins, as it is already in price order
+            boolean usePriceRange = rangeSize < bestSize || (rangeSize == bestSize && query.getPriceOrder() != 0);
+            if (usePriceRange) {
+                Map<Long, DeviceBucket> range = priceRange;
+                best = () -> range.values().stream().flatMap(DeviceBucket::stream).iterator();
+                bestPriceOrdered = query.getPriceOrder() != 0;
+            }
+        }
+        return new QueryCandidates(best, bestPriceOrdered);
+    }
+
+    /**
+     * Looks up each of a query's text conditions in its substring index.
+     *
+     * @param query the query to look up.
+     * @return the smallest set of devices matching one of the text conditions, or null if the query has none.
+     */
+    private Set<WearableDevice> smallestTextMatches(WearableDeviceQuery query) {
+        Set<WearableDevice> smallest = null;
+        String[] terms = {query.getSize(), query.getMaterial(), query.getModelName()};
+        TrigramIndex[] indexes = {sizeIndex, materialIndex, modelNameIndex};
+        for (int i = 0; i < terms.length; i++) {
+            if (terms[i] != null) {
+                Set<WearableDevice> matches = indexes[i].search(terms[i]);
+                if (smallest == null || matches.size() < smallest.size()) {
+                    smallest = matches;
+                }
+            }
+        }
+        return smallest;
+    }
+
+    /**
+     * Gets the first k WearableDevices, in the given order, out of those matching the filter. This takes a single
+     * pass, keeping the first k seen so far in a bounded heap whose head is the last of them, so it is the one to
+     * evict. Devices that compare equally are kept and returned in the order they were seen, as a stable sort of
+     * every match would, so the same k devices are chosen each time and pages cut from them never overlap.
+     *
+     * @param techDevs the WearableDevices to choose from.
+     * @param filter the condition a WearableDevice must meet to be included.
+     * @param order the order to choose and return the WearableDevices in.
+     * @param k the maximum number of WearableDevices to return.
+     * @return a new list of at most k WearableDevices, in order.
+     */
+    private static List<WearableDevice> firstInOrder(Iterable<WearableDevice> techDevs, Predicate<WearableDevice> filter,
+                                                     Comparator<WearableDevice> order, int k) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        if (k == Integer.MAX_VALUE) {
+            // Nothing to leave out, so a stable sort of every match is cheaper than a heap
+            List<WearableDevice> matches = new ArrayList<>();
+            for (WearableDevice techDev : techDevs) {
+                if (filter.test(techDev)) {
+                    matches.add(techDev);
+                }
+            }
+            matches.sort(order);
+            return matches;
+        }
+        // Ties are broken by the position each match was seen at, earliest first
+        Comparator<SeenDevice> seenOrder = Comparator.comparing(SeenDevice::techDev, order).thenComparingInt(SeenDevice::position);
+        PriorityQueue<SeenDevice> heap = new PriorityQueue<>(Math.min(k, 64), seenOrder.reversed());
+        int position = 0;
+        for (WearableDevice techDev : techDevs) {
+            if (!filter.test(techDev)) {
+                continue;
+            }
+            if (heap.size() < k) {
+                heap.add(new SeenDevice(techDev, position));
+            } else if (order.compare(techDev, heap.peek().techDev()) < 0) {
+                // A device equal to the head was seen after it, so it only replaces the head if it comes strictly first
+                heap.poll();
+                heap.add(new SeenDevice(techDev, position));
+            }
+            position++;
+        }
+        List<SeenDevice> seen = new ArrayList<>(heap);
+        seen.sort(seenOrder);
+        List<WearableDevice> first = new ArrayList<>(seen.size());
+        for (SeenDevice seenDevice : seen) {
+            first.add(seenDevice.techDev());
+        }
+        return first;
+    }
 
-        wearableList.set(i, bigger);
-        wearableList.set(j, smaller);
+    // A device kept by firstInOrder, with the position among the matches it was seen at
+    private record SeenDevice(WearableDevice techDev, int position) {
+    }
+
+    /**
+     * Removes a specific WearableDevice object from the list.
+     *
+     * @param techDev the WearableDevice to remove.
+     */
+    private void removeFromList(WearableDevice techDev) {
+        int i = positions.positionOf(techDev);
+        if (i >= 0) {
+            wearableList.remove(i);
+            positions.remove(i);
+            ColumnarCatalogue columns = latestColumns.get();
+            if (columns != null) {
+                columns.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Checks whether an ID a WearableDevice is being given is already used by a different WearableDevice.
+     *
+     * @param id the new ID, which may be the device's current ID in a different case.
+     * @param techDev the WearableDevice being given the ID.
+     * @return true if another WearableDevice has the ID, false otherwise.
+     */
+    private boolean isIdTakenByAnother(String id, WearableDevice techDev) {
+        if (id == null) {
+            return false;
+        }
+        WearableDevice holder = idIndex.get(indexKey(id));
+        return holder != null && holder != techDev;
+    }
+
+    /**
+     * Checks that a batch of updated WearableDevices would leave every ID unique: no two of them share an ID, and
+     * none takes the ID of a device outside the batch. IDs may move between devices in the batch.
+     *
+     * @param previous the WearableDevices as they are in the list.
+     * @param updated the changed copies that would replace them.
+     * @return true if the IDs would stay unique, false otherwise.
+     */
+    private boolean hasUniqueIds(List<WearableDevice> previous, List<WearableDevice> updated) {
+        Set<WearableDevice> batch = Collections.newSetFromMap(new IdentityHashMap<>());
+        batch.addAll(previous);
+        Set<String> ids = new HashSet<>();
+        for (WearableDevice techDev : updated) {
+            if (techDev.getId() == null) {
+                continue;
+            }
+            String key = indexKey(techDev.getId());
+            WearableDevice holder = idIndex.get(key);
+            if (!ids.add(key) || (holder != null && !batch.contains(holder))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Swaps a changed copy of a WearableDevice in for the original, in the same position in the list and in the
+     * indexes.
+     *
+     * @param techDev the WearableDevice in the list.
+     * @param replacement the WearableDevice to put in its place.
+     */
+    private void replaceDevice(WearableDevice techDev, WearableDevice replacement) {
+        unindexDevice(techDev);
+        int i = positions.positionOf(techDev);
+        if (i >= 0) {
+            wearableList.set(i, replacement);
+            positions.set(i, replacement);
+            ColumnarCatalogue columns = latestColumns.get();
+            if (columns != null) {
+                columns.set(i, replacement);
+            }
+        }
+        indexDevice(replacement);
+    }
+
+    /**
+     * Sorts the list using a stable O(n log n) sort. Lists at or above the parallel sort threshold are copied
+     * to an array and sorted with Arrays.parallelSort, which merge sorts the chunks on the common fork/join pool.
+     *
+     * @param order the order to sort the WearableDevices into.
+     */
+    private void sortWearableDevices(Comparator<WearableDevice> order) {
+        if (wearableList.size() < parallelSortThreshold) {
+            wearableList.sort(order);
+        } else {
+            WearableDevice[] sorted = wearableList.toArray(new WearableDevice[0]);
+            Arrays.parallelSort(sorted, order);
+            for (int i = 0; i < sorted.length; i++) {
+                wearableList.set(i, sorted[i]);
+            }
+        }
+        // Every row may have moved, so the columns are rebuilt the next time they are needed
+        positions.reset(wearableList);
+        latestColumns.set(null);
+        changed();
+    }
+
+    /**
+     * Records that the list has changed, so the next snapshot is taken afresh.
+     */
+    private void changed() {
+        version++;
     }
 }
@@ -0,0 +1,90 @@
+package controllers;
+
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import models.SmartBand;
+import models.SmartWatch;
+import models.WearableDevice;
+
+/**
+ * An XStream converter for SmartBands and SmartWatches that reads and writes their fields directly, instead of
+ * going through XStream's reflection-based converter. The XML is the same as the reflection converter produces.
+ * Devices are built through their constructors, so they are validated in the same way as devices added through
+ * the menus.
+ * <p>
+ * The price is still written as a decimal number of euro, as it was when WearableDevice held it as a double, so
+ * files move freely between versions. Prices in older files with more than two decimal places are rounded to the
+ * cent, half up, when the device is built.
+ */
+final class WearableDeviceConverter implements Converter {
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean canConvert(Class type) {
+        return type == SmartBand.class || type == SmartWatch.class;
+    }
+
+    @Override
+    public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+        WearableDevice techDev = (WearableDevice) source;
+        writeField(writer, "size", techDev.getSize());
+        writeField(writer, "price", Double.toString(techDev.getPrice()));
+        writeField(writer, "manufacturerName", techDev.getManufacturerName());
+        writeField(writer, "material", techDev.getMaterial());
+        writeField(writer, "modelName", techDev.getModelName());
+        writeField(writer, "id", techDev.getId());
+        if (techDev instanceof SmartBand smartBand) {
+            writeField(writer, "heartRateMonitor", Boolean.toString(smartBand.isHeartRateMonitor()));
+        } else if (techDev instanceof SmartWatch smartWatch) {
+            writeField(writer, "displayType", smartWatch.getDisplayType());
+        }
+    }
+
+    @Override
+    public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+        String size = null;
+        double price = 0;
+        String manufacturerName = null;
+        String material = null;
+        String modelName = null;
+        String id = null;
+        boolean heartRateMonitor = false;
+        String displayType = null;
+
+        while (reader.hasMoreChildren()) {
+            reader.moveDown();
+            String value = reader.getValue();
+            switch (reader.getNodeName()) {
+                case "size" -> size = value;
+                case "price" -> price = Double.parseDouble(value.trim());
+                case "manufacturerName" -> manufacturerName = value;
+                case "material" -> material = value;
+                case "modelName" -> modelName = value;
+                case "id" -> id = value;
+                case "heartRateMonitor" -> heartRateMonitor = Boolean.parseBoolean(value);
+                case "displayType" -> displayType = value;
+                default -> {
+                    // Fields this version doesn't know about are skipped
+                }
+            }
+            reader.moveUp();
+        }
+
+        if (context.getRequiredType() == SmartBand.class) {
+            return new SmartBand(size, price, manufacturerName, material, modelName, id, heartRateMonitor);
+        }
+        return new SmartWatch(size, price, manufacturerName, material, modelName, id, displayType);
+    }
+
+    // XStream leaves null fields out altogether
+    private static void writeField(HierarchicalStreamWriter writer, String name, String value) {
+        if (value != null) {
+            writer.startNode(name);
+            writer.setValue(value);
+            writer.endNode();
+        }
+    }
+}
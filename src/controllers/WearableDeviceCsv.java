@@ -0,0 +1,138 @@
+package controllers;
+
+import models.SmartBand;
+import models.SmartWatch;
+import utils.DisplayTypeUtility;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads WearableDevices from CSV, one device per line, for bulk imports.
+ * <p>
+ * Each line has the columns type, size, price, manufacturerName, material, modelName, id and a last column that
+ * depends on the type: heartRateMonitor (true or false) for a SmartBand, or displayType for a SmartWatch. The type
+ * is SmartBand or SmartWatch, ignoring case. Fields may be quoted, with "" standing for a quote inside a quoted
+ * field, but may not span lines. A first line starting with the column name "type" is treated as a header, and
+ * blank lines are skipped.
+ */
+final class WearableDeviceCsv {
+
+    private static final int COLUMNS = 8;
+
+    private WearableDeviceCsv() {
+    }
+
+    /**
+     * Reads every line of the input, adding each valid device to the batch and rejecting each line that can't be
+     * read as a device. A line is also rejected if the device's constructor would truncate one of its values or
+     * replace it with a default, e.g. an unknown manufacturer or a price below the minimum, so nothing is imported
+     * with different details from the ones in the file.
+     *
+     * @param in the CSV to read.
+     * @param into the batch to add the devices and rejects to, numbering rows by line.
+     * @throws IOException if the input cannot be read.
+     */
+    static void read(Reader in, ImportBatch into) throws IOException {
+        BufferedReader lines = in instanceof BufferedReader bufferedReader ? bufferedReader : new BufferedReader(in);
+        List<String> fields = new ArrayList<>(COLUMNS);
+        String line;
+        int row = 0;
+        while ((line = lines.readLine()) != null) {
+            row++;
+            if (line.isBlank()) {
+                continue;
+            }
+            fields.clear();
+            if (!split(line, fields)) {
+                into.reject(row, null, "Unterminated quoted field");
+            } else if (row == 1 && fields.get(0).trim().equalsIgnoreCase("type")) {
+                // Header line
+            } else if (fields.size() != COLUMNS) {
+                into.reject(row, null, "Expected " + COLUMNS + " columns but found " + fields.size());
+            } else {
+                readDevice(row, fields, into);
+            }
+        }
+    }
+
+    private static void readDevice(int row, List<String> fields, ImportBatch into) {
+        String type = fields.get(0).trim();
+        String size = fields.get(1);
+        String manufacturerName = fields.get(3);
+        String material = fields.get(4);
+        String modelName = fields.get(5);
+        String id = fields.get(6);
+        String last = fields.get(7).trim();
+
+        double price;
+        try {
+            price = Double.parseDouble(fields.get(2).trim());
+        } catch (NumberFormatException e) {
+            into.reject(row, id, "Invalid price: " + fields.get(2));
+            return;
+        }
+        if (!Double.isFinite(price)) {
+            into.reject(row, id, "Invalid price: " + fields.get(2));
+            return;
+        }
+        String invalidField = ImportBatch.invalidField(size, price, manufacturerName, material, modelName, id);
+        if (invalidField != null) {
+            into.reject(row, id, invalidField);
+            return;
+        }
+
+        if (type.equalsIgnoreCase("SmartBand")) {
+            if (!last.equalsIgnoreCase("true") && !last.equalsIgnoreCase("false")) {
+                into.reject(row, id, "Invalid heart rate monitor value: " + last);
+                return;
+            }
+            into.add(row, new SmartBand(size, price, manufacturerName, material, modelName, id, Boolean.parseBoolean(last)));
+        } else if (type.equalsIgnoreCase("SmartWatch")) {
+            if (!DisplayTypeUtility.isValidDisplayType(last)) {
+                into.reject(row, id, "Invalid display type: " + last);
+                return;
+            }
+            into.add(row, new SmartWatch(size, price, manufacturerName, material, modelName, id, last));
+        } else {
+            into.reject(row, id, "Unknown device type: " + type);
+        }
+    }
+
+    /**
+     * Splits a line into its fields, removing the quotes around quoted fields.
+     *
+     * @param line the line to split.
+     * @param fields the list to add the fields to.
+     * @return false if the line ends inside a quoted field, true otherwise.
+     */
+    private static boolean split(String line, List<String> fields) {
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return !quoted;
+    }
+}
@@ -0,0 +1,338 @@
+package controllers;
+
+import models.SmartBand;
+import models.SmartWatch;
+import models.WearableDevice;
+import utils.Utilities;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A query combining any number of conditions on WearableDevices, run with WearableDeviceAPI.query(), e.g.
+ * <pre>
+ *     api.query(new WearableDeviceQuery()
+ *             .manufacturer("Apple")
+ *             .priceBetween(100, 300)
+ *             .displayType("AMOLED")
+ *             .orderByPriceAscending()
+ *             .limit(10));
+ * </pre>
+ * A device must meet every condition to match. Text conditions ignore case, in the same way as the API's search
+ * methods: the manufacturer, ID and display type must match exactly, while the size, material and model name
+ * only need to contain the text searched for.
+ * <p>
+ * Without an order, the order of the results is unspecified, so offset() and limit() are only meaningful together
+ * with one of the orderBy methods.
+ */
+public class WearableDeviceQuery {
+    private String id;
+    private String manufacturerName;
+    // The price range in cents, both ends inclusive; a price bound given in euro is turned into the nearest whole
+    // cents inside it, so the range matches exactly the devices comparing the double prices would
+    private long minPriceCents = Long.MIN_VALUE;
+    private long maxPriceCents = Long.MAX_VALUE;
+    private String size;
+    private String material;
+    private String modelName;
+    private Class<? extends WearableDevice> type;
+    private String displayType;
+    private Boolean heartRateMonitor;
+    private final List<Predicate<WearableDevice>> conditions = new ArrayList<>();
+
+    private Comparator<WearableDevice> order;
+    // 1 when ordered by price ascending, -1 when descending, 0 otherwise; the price index is already in this order
+    private int priceOrder;
+    private int offset;
+    private int limit = Integer.MAX_VALUE;
+
+    /**
+     * Only match the WearableDevice with this ID.
+     *
+     * @param id the ID to match, ignoring case.
+     * @return this query.
+     */
+    public WearableDeviceQuery id(String id) {
+        this.id = id;
+        return this;
+    }
+
+    /**
+     * Only match WearableDevices made by this manufacturer.
+     *
+     * @param manufacturerName the manufacturer name to match, ignoring case.
+     * @return this query.
+     */
+    public WearableDeviceQuery manufacturer(String manufacturerName) {
+        this.manufacturerName = manufacturerName;
+        return this;
+    }
+
+    /**
+     * Only match WearableDevices costing more than the given price.
+     *
+     * @param price the price the WearableDevices must cost more than.
+     * @return this query.
+     */
+    public WearableDeviceQuery priceAbove(double price) {
+        minPriceCents = Math.max(minPriceCents, Utilities.centsAtMost(price) + 1);
+        return this;
+    }
+
+    /**
+     * Only match WearableDevices costing less than the given price.
+     *
+     * @param price the price the WearableDevices must cost less than.
+     * @return this query.
+     */
+    public WearableDeviceQuery priceBelow(double price) {
+        maxPriceCents = Math.min(maxPriceCents, Utilities.centsAtLeast(price) - 1);
+        return this;
+    }
+
+    /**
+     * Only match WearableDevices priced between minPrice and maxPrice, inclusive.
+     *
+     * @param minPrice the lowest price to match.
+     * @param maxPrice the highest price to match.
+     * @return this query.
+     */
+    public WearableDeviceQuery priceBetween(double minPrice, double maxPrice) {
+        minPriceCents = Math.max(minPriceCents, Utilities.centsAtLeast(minPrice));
+        maxPriceCents = Math.min(maxPriceCents, Utilities.centsAtMost(maxPrice));
+        return this;
+    }
+
+    /**
+     * Only match WearableDevices whose size contains the given text.
+     *
+     * @param size the text to search for, ignoring case, or null to match any size.
+     * @return this query.
+     */
+    public WearableDeviceQuery size(String size) {
+        this.size = size == null ? null : size.toUpperCase();
+        return this;
+    }
+
+    /**
+     * Only match WearableDevices whose material contains the given text.
+     *
+     * @param material the text to search for, ignoring case, or null to match any material.
+     * @return this query.
+     */
+    public WearableDeviceQuery material(String material) {
+        this.material = material == null ? null : material.toUpperCase();
+        return this;
+    }
+
+    /**
+     * Only match WearableDevices whose model name contains the given text.
+     *
+     * @param modelName the text to search for, ignoring case, or null to match any model name.
+     * @return this query.
+     */
+    public WearableDeviceQuery modelName(String modelName) {
+        this.modelName = modelName == null ? null : modelName.toUpperCase();
+        return this;
+    }
+
+    /**
+     * Only match WearableDevices of the given type, e.g. SmartWatch.class.
+     *
+     * @param type the type of WearableDevice to match.
+     * @return this query.
+     */
+    public WearableDeviceQuery type(Class<? extends WearableDevice> type) {
+        this.type = type;
+        return this;
+    }
+
+    /**
+     * Only match SmartWatches with the given display type.
+     *
+     * @param displayType the display type to match, ignoring case.
+     * @return this query.
+     */
+    public WearableDeviceQuery displayType(String displayType) {
+        this.displayType = displayType;
+        return this;
+    }
+
+    /**
+     * Only match SmartBands with, or without, a heart rate monitor.
+     *
+     * @param heartRateMonitor true to match SmartBands with a heart rate monitor, false to match those without.
+     * @return this query.
+     */
+    public WearableDeviceQuery heartRateMonitor(boolean heartRateMonitor) {
+        this.heartRateMonitor = heartRateMonitor;
+        return this;
+    }
+
+    /**
+     * Only match WearableDevices meeting a condition of your own, on top of the query's other conditions.
+     *
+     * @param condition the condition a WearableDevice must meet.
+     * @return this query.
+     */
+    public WearableDeviceQuery where(Predicate<WearableDevice> condition) {
+        conditions.add(condition);
+        return this;
+    }
+
+    /**
+     * Orders the results by price, cheapest first.
+     *
+     * @return this query.
+     */
+    public WearableDeviceQuery orderByPriceAscending() {
+        order = Comparator.comparingLong(WearableDevice::getPriceCents);
+        priceOrder = 1;
+        return this;
+    }
+
+    /**
+     * Orders the results by price, most expensive first.
+     *
+     * @return this query.
+     */
+    public WearableDeviceQuery orderByPriceDescending() {
+        order = Comparator.comparingLong(WearableDevice::getPriceCents).reversed();
+        priceOrder = -1;
+        return this;
+    }
+
+    /**
+     * Orders the results with a comparator of your own.
+     *
+     * @param order the order to return the results in.
+     * @return this query.
+     */
+    public WearableDeviceQuery orderBy(Comparator<WearableDevice> order) {
+        this.order = order;
+        priceOrder = 0;
+        return this;
+    }
+
+    /**
+     * Skips the first results, e.g. to fetch the second page of results.
+     *
+     * @param offset the number of results to skip.
+     * @return this query.
+     */
+    public WearableDeviceQuery offset(int offset) {
+        this.offset = Math.max(offset, 0);
+        return this;
+    }
+
+    /**
+     * Returns at most the given number of results.
+     *
+     * @param limit the maximum number of results.
+     * @return this query.
+     */
+    public WearableDeviceQuery limit(int limit) {
+        this.limit = Math.max(limit, 0);
+        return this;
+    }
+
+    /**
+     * Checks whether a WearableDevice meets every condition of the query.
+     *
+     * @param techDev the WearableDevice to check.
+     * @return true if the WearableDevice matches, false otherwise.
+     */
+    public boolean matches(WearableDevice techDev) {
+        if (id != null && (techDev.getId() == null || !techDev.getId().equalsIgnoreCase(id))) {
+            return false;
+        }
+        if (manufacturerName != null && !manufacturerName.equalsIgnoreCase(techDev.getManufacturerName())) {
+            return false;
+        }
+        long priceCents = techDev.getPriceCents();
+        if (priceCents < minPriceCents || priceCents > maxPriceCents) {
+            return false;
+        }
+        // A device without the field can't contain the text, just as the substring indexes never return it
+        if (size != null && !containsUpperCase(techDev.getSize(), size)) {
+            return false;
+        }
+        if (material != null && !containsUpperCase(techDev.getMaterial(), material)) {
+            return false;
+        }
+        if (modelName != null && !containsUpperCase(techDev.getModelName(), modelName)) {
+            return false;
+        }
+        if (type != null && !type.isInstance(techDev)) {
+            return false;
+        }
+        if (displayType != null && !(techDev instanceof SmartWatch smartWatch
+                && displayType.equalsIgnoreCase(smartWatch.getDisplayType()))) {
+            return false;
+        }
+        if (heartRateMonitor != null && !(techDev instanceof SmartBand smartBand
+                && smartBand.isHeartRateMonitor() == heartRateMonitor)) {
+            return false;
+        }
+        for (Predicate<WearableDevice> condition : conditions) {
+            if (!condition.test(techDev)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getManufacturerName() {
+        return manufacturerName;
+    }
+
+    String getSize() {
+        return size;
+    }
+
+    String getMaterial() {
+        return material;
+    }
+
+    String getModelName() {
+        return modelName;
+    }
+
+    boolean hasPriceRange() {
+        return minPriceCents != Long.MIN_VALUE || maxPriceCents != Long.MAX_VALUE;
+    }
+
+    long getMinPriceCents() {
+        return minPriceCents;
+    }
+
+    long getMaxPriceCents() {
+        return maxPriceCents;
+    }
+
+    Comparator<WearableDevice> getOrder() {
+        return order;
+    }
+
+    int getPriceOrder() {
+        return priceOrder;
+    }
+
+    int getOffset() {
+        return offset;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    private static boolean containsUpperCase(String value, String upperCaseText) {
+        return value != null && value.toUpperCase().contains(upperCaseText);
+    }
+}
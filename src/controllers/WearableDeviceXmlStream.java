@@ -0,0 +1,240 @@
+package controllers;
+
+import models.SmartBand;
+import models.SmartWatch;
+import models.WearableDevice;
+import utils.DisplayTypeUtility;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.function.Consumer;
+
+/**
+ * Reads and writes WearableDevices in the XML format produced by XStream's object streams, i.e.
+ * &lt;object-stream&gt;&lt;list&gt;&lt;models.SmartBand&gt;...&lt;/models.SmartBand&gt;&lt;/list&gt;&lt;/object-stream&gt;.
+ * <p>
+ * Unlike XStream's DomDriver, the document is never held in memory as a whole: devices are pulled from the
+ * input one element at a time on load, and written one at a time on save.
+ */
+final class WearableDeviceXmlStream {
+
+    private static final String ROOT_ELEMENT = "object-stream";
+    private static final String LIST_ELEMENT = "list";
+    private static final String SMART_BAND_ELEMENT = "models.SmartBand";
+    private static final String SMART_WATCH_ELEMENT = "models.SmartWatch";
+
+    private WearableDeviceXmlStream() {
+    }
+
+    /**
+     * Reads every WearableDevice from the input, passing each to the consumer as soon as it has been read.
+     * Devices are built through their constructors, so they are validated in the same way as devices added
+     * through the menus.
+     *
+     * @param in the XML to read.
+     * @param consumer receives each WearableDevice in document order.
+     * @return the number of WearableDevices read.
+     * @throws XMLStreamException if the input is not well-formed, or is not in the format this class writes,
+     *                            e.g. it uses XStream features such as references.
+     */
+    static int read(Reader in, Consumer<WearableDevice> consumer) throws XMLStreamException {
+        return readFields(in, fields -> consumer.accept(fields.toDevice()));
+    }
+
+    /**
+     * Reads every WearableDevice from the input into an import batch, numbering the rows by the position of each
+     * device in the file. Devices are checked in the same way as CSV rows are, so one with a value its
+     * constructor would truncate or replace with a default is rejected rather than imported with different
+     * details from the ones in the file.
+     *
+     * @param in the XML to read.
+     * @param into the batch to add the devices and rejects to.
+     * @throws XMLStreamException if the input is not well-formed, or is not in the format this class writes.
+     */
+    static void read(Reader in, ImportBatch into) throws XMLStreamException {
+        int[] row = {0};
+        readFields(in, fields -> {
+            row[0]++;
+            String invalidField = fields.invalidField();
+            if (invalidField != null) {
+                into.reject(row[0], fields.id(), invalidField);
+            } else {
+                into.add(row[0], fields.toDevice());
+            }
+        });
+    }
+
+    private static int readFields(Reader in, Consumer<DeviceFields> consumer) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // Same protection XStream's default security gives: no DTDs or external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            int count = 0;
+            reader.nextTag();
+            expectElement(reader, ROOT_ELEMENT);
+            reader.nextTag();
+            expectElement(reader, LIST_ELEMENT);
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                consumer.accept(readDevice(reader));
+                count++;
+            }
+            return count;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes the WearableDevices to the output in XStream's object stream format, indented as XStream does.
+     *
+     * @param out the output to write to.
+     * @param wearableDevices the WearableDevices to write.
+     * @throws XMLStreamException if the XML cannot be written.
+     */
+    static void write(Writer out, Iterable<WearableDevice> wearableDevices) throws XMLStreamException {
+        XMLStreamWriter writer = XMLOutputFactory.newFactory().createXMLStreamWriter(out);
+        writer.writeStartElement(ROOT_ELEMENT);
+        writer.writeCharacters("\n  ");
+        writer.writeStartElement(LIST_ELEMENT);
+        for (WearableDevice techDev : wearableDevices) {
+            writeDevice(writer, techDev);
+        }
+        writer.writeCharacters("\n  ");
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+        writer.writeEndElement();
+        writer.flush();
+        writer.close();
+    }
+
+    private static DeviceFields readDevice(XMLStreamReader reader) throws XMLStreamException {
+        String deviceElement = reader.getLocalName();
+        if (!deviceElement.equals(SMART_BAND_ELEMENT) && !deviceElement.equals(SMART_WATCH_ELEMENT)) {
+            throw new XMLStreamException("Unexpected device element <" + deviceElement + ">", reader.getLocation());
+        }
+        rejectAttributes(reader);
+
+        String size = null;
+        double price = 0;
+        String manufacturerName = null;
+        String material = null;
+        String modelName = null;
+        String id = null;
+        String heartRateMonitor = null;
+        String displayType = null;
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String field = reader.getLocalName();
+            rejectAttributes(reader);
+            String value = reader.getElementText();
+            switch (field) {
+                case "size" -> size = value;
+                case "price" -> price = parsePrice(reader, value);
+                case "manufacturerName" -> manufacturerName = value;
+                case "material" -> material = value;
+                case "modelName" -> modelName = value;
+                case "id" -> id = value;
+                case "heartRateMonitor" -> heartRateMonitor = value;
+                case "displayType" -> displayType = value;
+                default -> {
+                    // Fields this version doesn't know about are skipped
+                }
+            }
+        }
+
+        return new DeviceFields(deviceElement.equals(SMART_BAND_ELEMENT), size, price, manufacturerName, material,
+                modelName, id, heartRateMonitor, displayType);
+    }
+
+    /**
+     * The fields of one device element, as they are in the file.
+     */
+    private record DeviceFields(boolean smartBand, String size, double price, String manufacturerName, String material,
+                                String modelName, String id, String heartRateMonitor, String displayType) {
+
+        private WearableDevice toDevice() {
+            if (smartBand) {
+                return new SmartBand(size, price, manufacturerName, material, modelName, id, Boolean.parseBoolean(heartRateMonitor));
+            }
+            return new SmartWatch(size, price, manufacturerName, material, modelName, id, displayType);
+        }
+
+        // A missing heartRateMonitor is false, as it is for XStream; a missing display type would be defaulted
+        private String invalidField() {
+            if (!Double.isFinite(price)) {
+                return "Invalid price: " + price;
+            }
+            String invalidField = ImportBatch.invalidField(size, price, manufacturerName, material, modelName, id);
+            if (invalidField != null) {
+                return invalidField;
+            }
+            if (smartBand && heartRateMonitor != null && !heartRateMonitor.equalsIgnoreCase("true")
+                    && !heartRateMonitor.equalsIgnoreCase("false")) {
+                return "Invalid heart rate monitor value: " + heartRateMonitor;
+            }
+            if (!smartBand && (displayType == null || !DisplayTypeUtility.isValidDisplayType(displayType))) {
+                return "Invalid display type: " + displayType;
+            }
+            return null;
+        }
+    }
+
+    private static void writeDevice(XMLStreamWriter writer, WearableDevice techDev) throws XMLStreamException {
+        writer.writeCharacters("\n    ");
+        writer.writeStartElement(techDev instanceof SmartBand ? SMART_BAND_ELEMENT : SMART_WATCH_ELEMENT);
+        writeField(writer, "size", techDev.getSize());
+        // A decimal number of euro, as WearableDeviceConverter writes it
+        writeField(writer, "price", Double.toString(techDev.getPrice()));
+        writeField(writer, "manufacturerName", techDev.getManufacturerName());
+        writeField(writer, "material", techDev.getMaterial());
+        writeField(writer, "modelName", techDev.getModelName());
+        writeField(writer, "id", techDev.getId());
+        if (techDev instanceof SmartBand smartBand) {
+            writeField(writer, "heartRateMonitor", Boolean.toString(smartBand.isHeartRateMonitor()));
+        } else if (techDev instanceof SmartWatch smartWatch) {
+            writeField(writer, "displayType", smartWatch.getDisplayType());
+        }
+        writer.writeCharacters("\n    ");
+        writer.writeEndElement();
+    }
+
+    private static void writeField(XMLStreamWriter writer, String name, String value) throws XMLStreamException {
+        // XStream leaves null fields out altogether
+        if (value != null) {
+            writer.writeCharacters("\n      ");
+            writer.writeStartElement(name);
+            writer.writeCharacters(value);
+            writer.writeEndElement();
+        }
+    }
+
+    private static void expectElement(XMLStreamReader reader, String name) throws XMLStreamException {
+        if (!reader.getLocalName().equals(name)) {
+            throw new XMLStreamException("Expected <" + name + "> but found <" + reader.getLocalName() + ">", reader.getLocation());
+        }
+    }
+
+    // XStream uses attributes for references, class hints and the like, which this reader doesn't support
+    private static void rejectAttributes(XMLStreamReader reader) throws XMLStreamException {
+        if (reader.getAttributeCount() > 0) {
+            throw new XMLStreamException("Unsupported attribute on <" + reader.getLocalName() + ">", reader.getLocation());
+        }
+    }
+
+    private static double parsePrice(XMLStreamReader reader, String value) throws XMLStreamException {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new XMLStreamException("Invalid price: " + value, reader.getLocation(), e);
+        }
+    }
+}
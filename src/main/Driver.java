@@ -9,6 +9,8 @@ import utils.ManufacturerNameUtility;
 import utils.ScannerInput;
 import utils.Utilities;
 
+import java.io.IOException;
+
 public class Driver {
     // Driver instantiates a WearableDeviceAPI object to manage WearableDevices
     private final WearableDeviceAPI wearableAPI = new WearableDeviceAPI();
@@ -76,7 +78,7 @@ public class Driver {
 
         switch (option) {
             case 1 -> addWearableDevice();
-            case 2 -> System.out.println(wearableAPI.listAllWearableDevices());
+            case 2 -> printAllWearableDevices();
             case 3 -> updateWearableDevice();
             case 4 -> deleteWearableDevice();
             case 0 -> runMainMenu();
@@ -105,7 +107,7 @@ public class Driver {
                 ==>>  """);
 
         switch (option) {
-            case 1 -> System.out.println(wearableAPI.listAllWearableDevices());
+            case 1 -> printAllWearableDevices();
             case 2 -> System.out.println(wearableAPI.listAllSmartBands());
             case 3 -> System.out.println(wearableAPI.listAllSmartWatches());
             case 4 -> {
@@ -374,6 +376,20 @@ public class Driver {
         }
     }
 
+    /* printAllWearableDevices() streams every WearableDevice straight to the terminal rather than building the
+       whole listing as one String first. */
+    private void printAllWearableDevices() {
+        if (wearableAPI.numberOfWearableDevices() == 0) {
+            System.out.println("No WearableDevice Devices");
+            return;
+        }
+        try {
+            wearableAPI.writeWearableDevices(System.out, wearableDevice -> true);
+        } catch (IOException e) {
+            System.err.println("Error writing WearableDevices: " + e);
+        }
+    }
+
     /* The listAllSmartBands() and listAllSmartWatches() methods call and print the strings that are
        returned from the associated methods in WearableDeviceAPI. */
     private void listAllSmartBands() {
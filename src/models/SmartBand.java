@@ -10,31 +10,41 @@ public class SmartBand extends WearableDevice {
         this.heartRateMonitor = heartRateMonitor;
     }
 
+    public SmartBand(SmartBand other) {
+        super(other);
+        this.heartRateMonitor = other.heartRateMonitor;
+    }
+
     public boolean isHeartRateMonitor() {
         return heartRateMonitor;
     }
 
     public void setHeartRateMonitor(boolean heartRateMonitor) {
         this.heartRateMonitor = heartRateMonitor;
+        descriptionChanged();
+    }
+
+    public SmartBand copy() {
+        return new SmartBand(this);
     }
 
-    public double getInsurancePremium() {
-        return Utilities.toTwoDecimalPlaces(getPrice() * .07);
+    public long getInsurancePremiumCents() {
+        return Utilities.percentOfCents(getPriceCents(), 7);
     }
 
     public String connectToInternet() {
         return "Connects to the internet via Companion App";
     }
 
-    public String toString() {
-        String str = super.toString();
+    protected String describe() {
+        String str = super.describe();
 
         if (isHeartRateMonitor()) {
             str += "Includes Heart Rate Monitor. ";
         } else {
             str += "No Heart Rate Monitor included. ";
         }
-        str += "Insurance: €" + String.format("%.2f", getInsurancePremium()) + " per year. " + connectToInternet() + ".";
+        str += "Insurance: €" + Utilities.formatCents(getInsurancePremiumCents()) + " per year. " + connectToInternet() + ".";
         return str;
     }
 
@@ -1,6 +1,7 @@
 package models;
 
 import utils.DisplayTypeUtility;
+import utils.FieldDictionary;
 import utils.Utilities;
 
 import java.util.Objects;
@@ -11,32 +12,42 @@ public class SmartWatch extends WearableDevice {
     public SmartWatch(String size, double price, String manufacturerName, String material, String modelName, String id, String displayType) {
         super(size, price, manufacturerName, material, modelName, id);
         if (DisplayTypeUtility.isValidDisplayType(displayType)) {
-            this.displayType = displayType;
+            this.displayType = FieldDictionary.canonical(displayType);
         }
     }
 
+    public SmartWatch(SmartWatch other) {
+        super(other);
+        this.displayType = other.displayType;
+    }
+
     public String getDisplayType() {
         return displayType;
     }
 
     public void setDisplayType(String displayType) {
         if (DisplayTypeUtility.isValidDisplayType(displayType)) {
-            this.displayType = displayType;
+            this.displayType = FieldDictionary.canonical(displayType);
+            descriptionChanged();
         }
     }
 
-    public double getInsurancePremium() {
-        return Utilities.toTwoDecimalPlaces(getPrice() * .06);
+    public SmartWatch copy() {
+        return new SmartWatch(this);
+    }
+
+    public long getInsurancePremiumCents() {
+        return Utilities.percentOfCents(getPriceCents(), 6);
     }
 
     public String connectToInternet() {
         return "Connects to the internet via bluetooth";
     }
 
-    public String toString() {
-        String str = super.toString();
+    protected String describe() {
+        String str = super.describe();
 
-        str += "Display type: " + displayType + ". Insurance: €" + String.format("%.2f", getInsurancePremium()) + " per year. " +
+        str += "Display type: " + displayType + ". Insurance: €" + Utilities.formatCents(getInsurancePremiumCents()) + " per year. " +
                 connectToInternet() + ".";
         return str;
     }
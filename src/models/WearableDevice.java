@@ -1,15 +1,18 @@
 package models;
 
+import utils.FieldDictionary;
 import utils.ManufacturerNameUtility;
 import utils.Utilities;
 
+import java.util.Locale;
 import java.util.Objects;
 
 public abstract class WearableDevice {
 
     // Setting defaults as specified
     private String size;
-    private double price = 20;
+    // Prices are held as whole cents, so sums, comparisons and premiums are exact integer arithmetic
+    private long priceCents = 2000;
 
     // manufacturerName was updated to default to unknown, as the original specification was updated
     private String manufacturerName = "unknown";
@@ -17,21 +20,36 @@ public abstract class WearableDevice {
     private String modelName;
     private String id = "unknown";
 
+    // The rendered toString and the format locale it was rendered in, built the first time it is asked for and
+    // cleared by every setter
+    private transient Description description;
+
     // The constructor truncates some fields and validates others, setting to the default if they do not pass.
+    // Manufacturer name, material and size repeat across many devices, so they are stored as FieldDictionary values.
     public WearableDevice(String size, double price, String manufacturerName, String material, String modelName, String id) {
-        this.size = Utilities.truncateString(size, 10);
-        this.material = Utilities.truncateString(material, 20);
+        this.size = FieldDictionary.canonical(Utilities.truncateString(size, 10));
+        this.material = FieldDictionary.canonical(Utilities.truncateString(material, 20));
         this.modelName = Utilities.truncateString(modelName, 30);
         this.id = Utilities.truncateString(id, 10);
 
-        if (Utilities.checkAboveMinimum(price, 20)) {
-            this.price = price;
+        if (isValidPrice(price)) {
+            this.priceCents = Utilities.toCents(price);
         }
         if (ManufacturerNameUtility.isValidManuName(manufacturerName)) {
-            this.manufacturerName = manufacturerName;
+            this.manufacturerName = FieldDictionary.canonical(manufacturerName);
         }
     }
 
+    // Copies every field as it is, without validating again
+    protected WearableDevice(WearableDevice other) {
+        this.size = other.size;
+        this.priceCents = other.priceCents;
+        this.manufacturerName = other.manufacturerName;
+        this.material = other.material;
+        this.modelName = other.modelName;
+        this.id = other.id;
+    }
+
     // The setters only validate, meaning that unless strings confirm to the constraints they will not be updated
 
     public String getSize() {
@@ -40,27 +58,48 @@ public abstract class WearableDevice {
 
     public void setSize(String size) {
         if (Utilities.validStringlength(size, 10)) {
-            this.size = size;
+            this.size = FieldDictionary.canonical(size);
+            descriptionChanged();
         }
     }
 
+    // The price in euro; every whole number of cents converts to the double nearest it, e.g. 19999 = 199.99
     public double getPrice() {
-        return price;
+        return priceCents / 100.0;
+    }
+
+    public long getPriceCents() {
+        return priceCents;
     }
 
+    // The price is rounded to the nearest cent, half up, as String.format("%.2f") shows it
     public void setPrice(double price) {
-        if (Utilities.checkAboveMinimum(price, 20)) {
-            this.price = price;
+        if (isValidPrice(price)) {
+            this.priceCents = Utilities.toCents(price);
+            descriptionChanged();
         }
     }
 
+    public void setPriceCents(long priceCents) {
+        if (priceCents >= 2000 && priceCents <= Utilities.MAX_CENTS) {
+            this.priceCents = priceCents;
+            descriptionChanged();
+        }
+    }
+
+    // At least the minimum of 20, and no more than Utilities.MAX_CENTS once in cents
+    private static boolean isValidPrice(double price) {
+        return Utilities.checkAboveMinimum(price, 20) && price * 100 <= Utilities.MAX_CENTS;
+    }
+
     public String getManufacturerName() {
         return manufacturerName;
     }
 
     public void setManufacturerName(String manufacturerName) {
         if (ManufacturerNameUtility.isValidManuName(manufacturerName)) {
-            this.manufacturerName = manufacturerName;
+            this.manufacturerName = FieldDictionary.canonical(manufacturerName);
+            descriptionChanged();
         }
     }
 
@@ -70,7 +109,8 @@ public abstract class WearableDevice {
 
     public void setMaterial(String material) {
         if (Utilities.validStringlength(material, 20)) {
-            this.material = material;
+            this.material = FieldDictionary.canonical(material);
+            descriptionChanged();
         }
     }
 
@@ -81,6 +121,7 @@ public abstract class WearableDevice {
     public void setModelName(String modelName) {
         if (Utilities.validStringlength(modelName, 30)) {
             this.modelName = modelName;
+            descriptionChanged();
         }
     }
 
@@ -91,26 +132,55 @@ public abstract class WearableDevice {
     public void setId(String id) {
         if (Utilities.validStringlength(id, 10)) {
             this.id = id;
+            descriptionChanged();
         }
     }
 
-    public abstract double getInsurancePremium();
+    // A new device with the same details, so a change can be made to the copy while the original stays as it was
+    public abstract WearableDevice copy();
+
+    public abstract long getInsurancePremiumCents();
+
+    public double getInsurancePremium() {
+        return getInsurancePremiumCents() / 100.0;
+    }
 
     public abstract String connectToInternet();
 
     // The toString also adds the class name (e.g. SmartBand vs SmartWatch) and formats the price to two zeros.
+    // Listings render every device, so the description is cached until a setter changes one of the fields in it;
+    // subclasses add their own details in describe() and call descriptionChanged() from their setters.
+    // Prices are formatted for the default locale, so the description is also rendered again when that changes.
 
     // https://stackoverflow.com/questions/6271417/java-get-the-current-class-name
     // https://mkyong.com/java/java-display-double-in-2-decimal-points/
     @Override
     public String toString() {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        Description description = this.description;
+        if (description == null || !description.locale().equals(locale)) {
+            description = new Description(locale, describe());
+            this.description = description;
+        }
+        return description.text();
+    }
+
+    private record Description(Locale locale, String text) {
+    }
+
+    protected String describe() {
         return "ID " + id + ", " +
                 manufacturerName + " " +
                 modelName + " " + this.getClass().getSimpleName() +
                 ". Size " +
                 size + ", made of " +
                 material + ". Cost: " +
-                "€" + String.format("%.2f", price) + ". ";
+                "€" + Utilities.formatCents(priceCents) + ". ";
+    }
+
+    // Clears the cached description, so the next toString renders the device again
+    protected void descriptionChanged() {
+        description = null;
     }
 
     @Override
@@ -118,6 +188,6 @@ public abstract class WearableDevice {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         WearableDevice that = (WearableDevice) o;
-        return Double.compare(price, that.price) == 0 && Objects.equals(size, that.size) && Objects.equals(manufacturerName, that.manufacturerName) && Objects.equals(material, that.material) && Objects.equals(modelName, that.modelName) && Objects.equals(id, that.id);
+        return priceCents == that.priceCents && Objects.equals(size, that.size) && Objects.equals(manufacturerName, that.manufacturerName) && Objects.equals(material, that.material) && Objects.equals(modelName, that.modelName) && Objects.equals(id, that.id);
     }
 }
@@ -0,0 +1,186 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable set of allowed values (e.g. manufacturer names) that is looked up ignoring case.
+ * <p>
+ * Values are kept in an open-addressing hash table, hashed on a few case-folded characters, so a lookup hashes
+ * the name it is given in place and compares it character by character with the case-folded copies of the values
+ * sharing its slot, in the same way equalsIgnoreCase would: no lower- or upper-cased copy of the name is made. Each value keeps the position it
+ * was registered in, so new values are only ever added at the end.
+ */
+public final class CaseInsensitiveRegistry {
+    private final List<String> values;
+    private final String[] table;
+    // Each value in the table case-folded, so lookups compare characters without folding both sides
+    private final String[] foldedTable;
+    private final int[] ordinals;
+
+    private CaseInsensitiveRegistry(List<String> values) {
+        this.values = Collections.unmodifiableList(values);
+        int capacity = Integer.highestOneBit(Math.max(values.size(), 1) * 4);
+        table = new String[capacity];
+        foldedTable = new String[capacity];
+        ordinals = new int[capacity];
+        for (int ordinal = 0; ordinal < values.size(); ordinal++) {
+            String value = values.get(ordinal);
+            int slot = hash(value) & (capacity - 1);
+            while (table[slot] != null) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            table[slot] = value;
+            foldedTable[slot] = fold(value);
+            ordinals[slot] = ordinal;
+        }
+    }
+
+    /**
+     * Creates a registry of the given values. A value equal to an earlier one, ignoring case, is left out.
+     *
+     * @param values the allowed values, in order.
+     * @return the registry.
+     */
+    public static CaseInsensitiveRegistry of(String... values) {
+        return new CaseInsensitiveRegistry(new ArrayList<>()).with(values);
+    }
+
+    /**
+     * Creates a registry holding this registry's values followed by the new ones. Values that are blank, or are
+     * already registered ignoring case, are left out.
+     *
+     * @param newValues the values to add.
+     * @return the new registry; this registry is unchanged.
+     */
+    public CaseInsensitiveRegistry with(String... newValues) {
+        List<String> combined = new ArrayList<>(values);
+        for (String value : newValues) {
+            if (value == null || value.isBlank()) {
+                continue;
+            }
+            String trimmed = value.trim();
+            if (combined.stream().noneMatch(trimmed::equalsIgnoreCase)) {
+                combined.add(trimmed);
+            }
+        }
+        return new CaseInsensitiveRegistry(combined);
+    }
+
+    /**
+     * Adds the comma-separated values in a system property, if it is set, e.g.
+     * -Dwearabledevices.manufacturers=Polar,Suunto.
+     *
+     * @param propertyName the name of the system property.
+     * @return the registry with the property's values added, or this registry if the property is not set.
+     */
+    public CaseInsensitiveRegistry withSystemProperty(String propertyName) {
+        String property = System.getProperty(propertyName);
+        return property == null ? this : with(property.split(","));
+    }
+
+    /**
+     * Gets the registered spelling of a value.
+     *
+     * @param value the value to look up, ignoring case.
+     * @return the value as it was registered, or null if it isn't registered.
+     */
+    public String canonical(String value) {
+        int slot = slotOf(value);
+        return slot < 0 ? null : table[slot];
+    }
+
+    /**
+     * Checks whether a value is registered.
+     *
+     * @param value the value to look up, ignoring case.
+     * @return true if the value is registered, false otherwise.
+     */
+    public boolean contains(String value) {
+        return slotOf(value) >= 0;
+    }
+
+    /**
+     * Gets the position a value was registered in.
+     *
+     * @param value the value to look up, ignoring case.
+     * @return the position of the value, or -1 if it isn't registered.
+     */
+    public int ordinalOf(String value) {
+        int slot = slotOf(value);
+        return slot < 0 ? -1 : ordinals[slot];
+    }
+
+    /**
+     * Gets the registered values.
+     *
+     * @return an unmodifiable list of the values, in the order they were registered.
+     */
+    public List<String> values() {
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(", ", values);
+    }
+
+    private int slotOf(String value) {
+        if (value == null) {
+            return -1;
+        }
+        int mask = table.length - 1;
+        for (int slot = hash(value) & mask; table[slot] != null; slot = (slot + 1) & mask) {
+            if (matchesFolded(foldedTable[slot], value)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    // Hashes the length and the first, middle and last characters, folded the way equalsIgnoreCase compares them,
+    // so values equal ignoring case hash the same. Registered names almost always differ in one of these, and a
+    // lookup costs the same however long the name is; any clash is settled by equalsIgnoreCase when probing.
+    private static int hash(String value) {
+        int length = value.length();
+        if (length == 0) {
+            return 0;
+        }
+        int hash = length;
+        hash = 31 * hash + fold(value.charAt(0));
+        hash = 31 * hash + fold(value.charAt(length / 2));
+        hash = 31 * hash + fold(value.charAt(length - 1));
+        // Spread the high bits into the low ones the table index uses
+        return hash ^ (hash >>> 16);
+    }
+
+    // Compares a value with a folded one, character by character, as equalsIgnoreCase would compare the originals
+    private static boolean matchesFolded(String folded, String value) {
+        if (folded.length() != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < folded.length(); i++) {
+            if (folded.charAt(i) != fold(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String fold(String value) {
+        StringBuilder folded = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            folded.append((char) fold(value.charAt(i)));
+        }
+        return folded.toString();
+    }
+
+    private static int fold(char c) {
+        if (c < 128) {
+            // ASCII fast path: only A-Z fold
+            return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
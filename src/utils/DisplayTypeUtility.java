@@ -1,36 +1,52 @@
 package utils;
 
-import java.util.ArrayList;
+import java.util.List;
 
 public class DisplayTypeUtility {
 
-    private static final ArrayList<String> displayTypes = new ArrayList<>() {{
-        add("AMOLED");
-        add("LCD");
-        add("LED");
-        add("TFT");
-    }};
+    // Extra display types can be allowed at startup with -Dwearabledevices.displaytypes=OLED,E-INK
+    private static volatile CaseInsensitiveRegistry displayTypes = defaultDisplayTypes();
+
+    private static CaseInsensitiveRegistry defaultDisplayTypes() {
+        return CaseInsensitiveRegistry.of("AMOLED", "LCD", "LED", "TFT")
+                .withSystemProperty("wearabledevices.displaytypes");
+    }
 
 
     public static boolean isValidDisplayType(String type) {
         //must not be case sensitive
-        for (String disType : displayTypes) {
-            if (disType.equalsIgnoreCase(type)) {
-                return true;
-            }
-        }
-        return false;
+        return displayTypes.contains(type);
+    }
+
+    // Returns the display type as it was registered (e.g. "AMOLED" for "amoled"), or null if it is not a valid display type.
+    public static String canonicalDisplayType(String type) {
+        return displayTypes.canonical(type);
+    }
+
+    // Allows extra display types, e.g. from configuration read at startup. They are added after the existing ones.
+    public static synchronized void registerDisplayTypes(String... types) {
+        displayTypes = displayTypes.with(types);
+    }
+
+    // Forgets every display type registered since startup, e.g. so one test's types don't leak into the next.
+    // Ordinals taken before the reset may then name a different type, so this is only for when no devices are in use.
+    public static synchronized void resetDisplayTypes() {
+        displayTypes = defaultDisplayTypes();
+    }
+
+    // Returns the position of the display type in the list (ignoring case), or -1 if it is not a valid display type.
+    // It depends on which display types are registered, so it is only for use within one process, never in files.
+    public static int ordinalOf(String type) {
+        return displayTypes.ordinalOf(type);
+    }
+
+    // Returns the allowed display types, in ordinal order
+    public static List<String> getDisplayTypes() {
+        return displayTypes.values();
     }
 
     // This method was added to return a string of allowed manufacturer names to the user
     public static String formatList() {
-        String list = "";
-        for (int i = 0; i < displayTypes.size(); i++) {
-            list += (displayTypes.get(i));
-            if (i < displayTypes.size() - 1) {
-                list += (", ");
-            }
-        }
-        return list;
+        return displayTypes.toString();
     }
 }
@@ -0,0 +1,55 @@
+package utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A shared dictionary of the values of low-cardinality device fields (manufacturer name, material, size and
+ * display type). Devices store the dictionary's copy of each value, so a million devices made of "Silicone" hold
+ * one "Silicone" String between them rather than a million, and equal values are the same instance.
+ * <p>
+ * Values are matched exactly, including case, so the value a device stores never changes. The dictionary starts
+ * with the manufacturer names and display types from their registries, and stops taking new values once it holds
+ * MAX_VALUES of them, so a field that turns out not to be low-cardinality can't grow it without limit.
+ */
+public class FieldDictionary {
+
+    public static final int MAX_VALUES = 65_536;
+
+    private static final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<>();
+
+    static {
+        for (String name : ManufacturerNameUtility.getManufacturerNames()) {
+            values.put(name, name);
+        }
+        for (String type : DisplayTypeUtility.getDisplayTypes()) {
+            values.put(type, type);
+        }
+    }
+
+    /**
+     * Returns the dictionary's instance of a value, adding the value if it is new and there is room.
+     *
+     * @param value the value to look up, which may be null.
+     * @return an equal String shared by every caller, the value itself if the dictionary is full, or null if the
+     * value is null.
+     */
+    public static String canonical(String value) {
+        if (value == null) {
+            return null;
+        }
+        String canonical = values.get(value);
+        if (canonical != null) {
+            return canonical;
+        }
+        if (values.size() >= MAX_VALUES) {
+            return value;
+        }
+        canonical = values.putIfAbsent(value, value);
+        return canonical == null ? value : canonical;
+    }
+
+    // Returns the number of distinct values in the dictionary
+    public static int size() {
+        return values.size();
+    }
+}
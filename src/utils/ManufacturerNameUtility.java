@@ -1,36 +1,45 @@
 package utils;
 
-import java.util.ArrayList;
+import java.util.List;
 
 public class ManufacturerNameUtility {
 
-    private static final ArrayList<String> manufacturerNames = new ArrayList<>() {{
-        add("APPLE");
-        add("SAMSUNG");
-        add("Garmin");
-        add("FitBit");
-        add("Whoop");
-    }};
+    // Extra manufacturers can be allowed at startup with -Dwearabledevices.manufacturers=Polar,Suunto
+    private static volatile CaseInsensitiveRegistry manufacturerNames = defaultManufacturerNames();
+
+    private static CaseInsensitiveRegistry defaultManufacturerNames() {
+        return CaseInsensitiveRegistry.of("APPLE", "SAMSUNG", "Garmin", "FitBit", "Whoop")
+                .withSystemProperty("wearabledevices.manufacturers");
+    }
 
     public static boolean isValidManuName(String name) {
         //must not be case sensitive
-        for (String manuName : manufacturerNames) {
-            if (manuName.equalsIgnoreCase(name)) {
-                return true;
-            }
-        }
-        return false;
+        return manufacturerNames.contains(name);
+    }
+
+    // Returns the manufacturer name as it was registered (e.g. "APPLE" for "apple"), or null if it is not a valid name.
+    public static String canonicalManuName(String name) {
+        return manufacturerNames.canonical(name);
+    }
+
+    // Allows extra manufacturers, e.g. from configuration read at startup. They are listed after the existing ones.
+    public static synchronized void registerManufacturerNames(String... names) {
+        manufacturerNames = manufacturerNames.with(names);
+    }
+
+    // Forgets every manufacturer registered since startup, e.g. so one test's names don't leak into the next.
+    // Devices already created keep the names they were given, so this is only for when none are in use.
+    public static synchronized void resetManufacturerNames() {
+        manufacturerNames = defaultManufacturerNames();
+    }
+
+    // Returns the allowed manufacturer names, in the order they are listed to the user
+    public static List<String> getManufacturerNames() {
+        return manufacturerNames.values();
     }
 
     // This method was added to return a string of allowed manufacturer names to the user
     public static String formatList() {
-        String list = "";
-        for (int i = 0; i < manufacturerNames.size(); i++) {
-            list += (manufacturerNames.get(i));
-            if (i < manufacturerNames.size() - 1) {
-                list += (", ");
-            }
-        }
-        return list;
+        return manufacturerNames.toString();
     }
 }
@@ -1,24 +1,139 @@
 package utils;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormatSymbols;
 import java.util.List;
+import java.util.Locale;
 
 public class Utilities {
 
     /**
-     * This method takes in a decimal point number and truncates it to two decimal places.  Note
-     * that the method does NOT round when truncating; the numbers after the two decimal places are
-     * just removed.
+     * The largest amount, in cents, a price may be: ten trillion euro. Every whole number of cents up to it converts
+     * to a double and back exactly, and sums of many such amounts still fit in a long.
+     */
+    public static final long MAX_CENTS = 1_000_000_000_000_000L;
+
+    /**
+     * This method converts an amount in euro to a whole number of cents, rounding half up from the shortest
+     * decimal representation of the amount (the digits Double.toString gives), so 45.675 is 4568 cents. This is
+     * the same rounding String.format("%.2f") does, so an amount shows the same before and after conversion.
      * <p>
-     * The method does the truncating in this manner:
-     * - multiply the number by 100 e.g. 16.543235523 * 100 = 1654.3235523
-     * - cast the multiplied number as an in e.g. 1654.3235523 = 1654
-     * - finally, the multiplied and casted number is divided by 100 and returned e.g. 1654 = 16.54
+     * Multiplying by 100 gives the same whole number of cents for almost every amount; only those within a whisker
+     * of half a cent, or too large for the multiplication to be exact, are rounded with BigDecimal.
+     *
+     * @param number Amount in euro, between -MAX_CENTS and MAX_CENTS cents
+     * @return the amount rounded to a whole number of cents, e.g. 16.543235523 = 1654
+     * @throws IllegalArgumentException if the amount is not a number, infinite, or larger than MAX_CENTS cents
+     */
+    public static long toCents(double number) {
+        if (!(Math.abs(number) * 100 <= MAX_CENTS)) {
+            throw new IllegalArgumentException("Not a valid amount: " + number);
+        }
+        if (Math.abs(number) < 1e9) {
+            double scaled = number * 100;
+            double wholeCents = Math.floor(scaled);
+            double fraction = scaled - wholeCents;
+            if (Math.abs(fraction - 0.5) > 1e-3) {
+                return (long) wholeCents + (fraction > 0.5 ? 1 : 0);
+            }
+        }
+        return BigDecimal.valueOf(number).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+
+    /**
+     * This method finds the largest whole number of cents whose amount (cents / 100.0) is no more than a price, so
+     * "above price" and "at most price" can be checked on cents with the same result as comparing the doubles.
+     *
+     * @param price Price in euro
+     * @return the largest number of cents that is no more than the price, kept between -1 and MAX_CENTS; MAX_CENTS
+     * if the price is not a number, so no valid amount is above it
+     */
+    public static long centsAtMost(double price) {
+        if (Double.isNaN(price) || price * 100 >= MAX_CENTS) {
+            return MAX_CENTS;
+        }
+        if (price < 0) {
+            return -1;
+        }
+        long cents = (long) Math.floor(price * 100);
+        // price * 100 can be a rounding error either side of the exact value, so settle it on the doubles themselves
+        while (cents >= 0 && cents / 100.0 > price) {
+            cents--;
+        }
+        while ((cents + 1) / 100.0 <= price) {
+            cents++;
+        }
+        return cents;
+    }
+
+    /**
+     * This method finds the smallest whole number of cents whose amount (cents / 100.0) is no less than a price, so
+     * "below price" and "at least price" can be checked on cents with the same result as comparing the doubles.
      *
-     * @param number Number to be truncated to two decimal places
-     * @return the number, passed as a parameter, truncated to two decimal places (note: not rounded)
+     * @param price Price in euro
+     * @return the smallest number of cents that is no less than the price, kept between 0 and MAX_CENTS + 1; 0 if
+     * the price is not a number, so no valid amount is below it
      */
-    public static double toTwoDecimalPlaces(double number) {
-        return (int) (number * 100) / 100.0;
+    public static long centsAtLeast(double price) {
+        if (Double.isNaN(price) || price <= 0) {
+            return 0;
+        }
+        if (price * 100 > MAX_CENTS) {
+            return MAX_CENTS + 1;
+        }
+        long cents = centsAtMost(price);
+        return cents / 100.0 == price ? cents : cents + 1;
+    }
+
+    /**
+     * This method works out a percentage of an amount in cents, truncating any fraction of a cent, exactly: 7% of
+     * 3000 cents is always 210 cents.
+     *
+     * @param cents   Amount in cents, from 0 to MAX_CENTS
+     * @param percent Percentage to take, e.g. 7
+     * @return the percentage of the amount in whole cents, rounded down
+     */
+    public static long percentOfCents(long cents, int percent) {
+        // Split off the euro so the multiplication can't overflow
+        return cents / 100 * percent + cents % 100 * percent / 100;
+    }
+
+    /**
+     * This method formats an amount in cents as euro to two decimal places, giving exactly the same String as
+     * String.format("%.2f") would for the amount in the default locale, e.g. 165432 = "1654.32".
+     *
+     * @param cents Amount in cents
+     * @return the amount formatted to two decimal places
+     */
+    public static String formatCents(long cents) {
+        DecimalSymbols symbols = decimalSymbols();
+        if (cents < 0 || symbols.zeroDigit() != '0') {
+            return String.format("%.2f", BigDecimal.valueOf(cents, 2));
+        }
+        int remainder = (int) (cents % 100);
+        StringBuilder formatted = new StringBuilder(20).append(cents / 100).append(symbols.decimalSeparator());
+        if (remainder < 10) {
+            formatted.append('0');
+        }
+        return formatted.append(remainder).toString();
+    }
+
+    // The digits String.format uses for the default locale, looked up again only when the default locale changes
+    private record DecimalSymbols(Locale locale, char zeroDigit, char decimalSeparator) {
+    }
+
+    private static volatile DecimalSymbols decimalSymbols;
+
+    private static DecimalSymbols decimalSymbols() {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        DecimalSymbols symbols = decimalSymbols;
+        if (symbols == null || !symbols.locale().equals(locale)) {
+            DecimalFormatSymbols formatSymbols = DecimalFormatSymbols.getInstance(locale);
+            symbols = new DecimalSymbols(locale, formatSymbols.getZeroDigit(), formatSymbols.getDecimalSeparator());
+            decimalSymbols = symbols;
+        }
+        return symbols;
     }
 
     /**
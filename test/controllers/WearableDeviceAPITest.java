@@ -0,0 +1,573 @@
+package controllers;
+
+import models.SmartBand;
+import models.SmartWatch;
+import models.WearableDevice;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import utils.DisplayTypeUtility;
+import utils.ManufacturerNameUtility;
+import utils.Utilities;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WearableDeviceAPITest {
+    WearableDeviceAPI api;
+
+    @BeforeEach
+    void setUp() {
+        api = new WearableDeviceAPI(new File("wearabledevicesapitest.xml"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        api = null;
+        // Some tests register extra names, which would otherwise stay valid for the rest of the run
+        ManufacturerNameUtility.resetManufacturerNames();
+        DisplayTypeUtility.resetDisplayTypes();
+    }
+
+    @Test
+    void testTopKPrefersEarlierDevicesOnTies() {
+        WearableDevice a = new SmartBand("Medium", 100, "APPLE", "Silicone", "A", "A", true);
+        WearableDevice b = new SmartBand("Medium", 100, "APPLE", "Silicone", "B", "B", true);
+        WearableDevice c = new SmartBand("Medium", 200, "APPLE", "Silicone", "C", "C", true);
+        api.addWearableDeviceDevice(a);
+        api.addWearableDeviceDevice(b);
+        api.addWearableDeviceDevice(c);
+
+        assertEquals(List.of(c, a), api.topK(2, techDev -> true, Comparator.comparingLong(WearableDevice::getPriceCents)));
+        assertEquals(List.of(c, a, b), api.topK(3, techDev -> true, Comparator.comparingLong(WearableDevice::getPriceCents)));
+    }
+
+    @Test
+    void testQueryPagesDoNotOverlapWhenPricesTie() {
+        for (int i = 0; i < 300; i++) {
+            String manufacturer = i % 3 == 0 ? "SAMSUNG" : "APPLE";
+            api.addWearableDeviceDevice(new SmartWatch("Small", 20 + (i % 5) * 10, manufacturer, "Plastic", "Model" + i, "SW" + i, "LCD"));
+        }
+        for (boolean ascending : new boolean[]{true, false}) {
+            WearableDeviceQuery all = new WearableDeviceQuery().manufacturer("Apple");
+            List<WearableDevice> unpaged = api.query(ascending ? all.orderByPriceAscending() : all.orderByPriceDescending());
+            assertEquals(200, unpaged.size());
+
+            List<WearableDevice> paged = new ArrayList<>();
+            for (int offset = 0; offset < unpaged.size(); offset += 7) {
+                WearableDeviceQuery page = new WearableDeviceQuery().manufacturer("Apple").offset(offset).limit(7);
+                paged.addAll(api.query(ascending ? page.orderByPriceAscending() : page.orderByPriceDescending()));
+            }
+            assertEquals(unpaged, paged);
+        }
+    }
+
+    @Test
+    void testUpdatesDoNotChangeDevicesInEarlierSnapshots() {
+        api.addWearableDeviceDevice(new SmartBand("Medium", 30, "APPLE", "Silicone", "Band", "SB1", false));
+        api.addWearableDeviceDevice(new SmartWatch("Small", 40, "SAMSUNG", "Plastic", "Watch", "SW1", "LCD"));
+        CatalogueSnapshot before = api.snapshot();
+
+        assertTrue(api.updateSmartBand("SB1", new SmartBand("Large", 50, "Garmin", "Rubber", "Band2", "SB1", true)));
+        api.updateWearableDevicesWhere(techDev -> techDev instanceof SmartWatch, techDev -> techDev.setPrice(99));
+
+        assertEquals(30.0, before.wearableDevices().get(0).getPrice());
+        assertEquals("Medium", before.wearableDevices().get(0).getSize());
+        assertEquals(40.0, before.wearableDevices().get(1).getPrice());
+        assertEquals(50.0, api.getWearableDeviceById("SB1").getPrice());
+        assertEquals(99.0, api.getWearableDeviceById("SW1").getPrice());
+        assertEquals(1, api.getWearableDevicesAbovePrice(90).size());
+    }
+
+    @Test
+    void testUpdatesRejectAnIdAlreadyInUse() {
+        api.addWearableDeviceDevice(new SmartBand("Medium", 30, "APPLE", "Silicone", "Band", "A", false));
+        api.addWearableDeviceDevice(new SmartBand("Medium", 30, "APPLE", "Silicone", "Band", "B", false));
+        api.addWearableDeviceDevice(new SmartWatch("Small", 40, "SAMSUNG", "Plastic", "Watch", "C", "LCD"));
+
+        assertFalse(api.updateSmartBand("A", new SmartBand("Large", 50, "APPLE", "Silicone", "Band", "b", true)));
+        assertEquals(30.0, api.getWearableDeviceById("A").getPrice());
+        assertTrue(api.updateSmartBand("A", new SmartBand("Large", 50, "APPLE", "Silicone", "Band", "a", true)));
+        assertEquals("a", api.getWearableDeviceById("A").getId());
+
+        assertTrue(api.updateWearableDevicesWhere(techDev -> true, techDev -> techDev.setId("X")).isEmpty());
+        assertTrue(api.updateWearableDevicesWhere(techDev -> techDev instanceof SmartBand, techDev -> techDev.setId("C")).isEmpty());
+        // IDs may be swapped between devices updated together
+        assertEquals(2, api.updateWearableDevicesWhere(techDev -> techDev instanceof SmartBand,
+                techDev -> techDev.setId(techDev.getId().equalsIgnoreCase("A") ? "B" : "A")).size());
+
+        assertNotNull(api.deleteWearableDeviceById("A"));
+        assertNotNull(api.deleteWearableDeviceById("B"));
+        assertNull(api.deleteWearableDeviceById("B"));
+        assertEquals(1, api.numberOfWearableDevices());
+        assertTrue(api.isValidId("B"));
+    }
+
+    @Test
+    void testUpdatesAndDeletesByIdFindDevicesAfterOthersAreDeleted() {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            api.addWearableDeviceDevice(new SmartBand("Medium", 30 + i, "APPLE", "Silicone", "Band", "B" + i, false));
+            expected.add("B" + i);
+        }
+        // Enough deletes, from every part of the list, that the emptied slots are renumbered along the way
+        for (int i = 0; i < 200; i++) {
+            if (i % 3 != 1) {
+                assertNotNull(api.deleteWearableDeviceById("B" + i));
+                expected.remove("B" + i);
+            }
+        }
+        api.deleteWearableDeviceByIndex(0);
+        expected.remove(0);
+        api.deleteWearableDevicesIf(techDev -> techDev.getId().endsWith("7"));
+        expected.removeIf(id -> id.endsWith("7"));
+        for (int i = 200; i < 220; i++) {
+            api.addWearableDeviceDevice(new SmartBand("Medium", 30, "APPLE", "Silicone", "Band", "B" + i, false));
+            expected.add("B" + i);
+        }
+
+        for (int i = 1; i < 220; i += 4) {
+            if (expected.contains("B" + i)) {
+                assertTrue(api.updateSmartBand("B" + i, new SmartBand("Large", 99, "APPLE", "Silicone", "Band", "B" + i, true)));
+                assertSame(api.getWearableDeviceById("B" + i), api.getWearableDeviceByIndex(expected.indexOf("B" + i)));
+            }
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), api.getWearableDeviceByIndex(i).getId());
+        }
+        assertEquals(99.0, api.getWearableDeviceById("B213").getPrice());
+    }
+
+    @Test
+    void testManufacturerAndPriceGroupsKeepTheirOrderThroughDeletes() {
+        List<WearableDevice> apple = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            WearableDevice techDev = new SmartBand("Medium", 30, i % 2 == 0 ? "APPLE" : "SAMSUNG", "Silicone", "Band", "B" + i, false);
+            api.addWearableDeviceDevice(techDev);
+            if (i % 2 == 0) {
+                apple.add(techDev);
+            }
+        }
+        for (int i = 0; i < 60; i += 4) {
+            apple.remove(api.deleteWearableDeviceById("B" + i));
+        }
+        api.deleteWearableDevicesIf(techDev -> techDev.getId().endsWith("8"));
+        apple.removeIf(techDev -> techDev.getId().endsWith("8"));
+
+        assertEquals(apple, api.getWearableDevicesByManufacturer("Apple"));
+        assertEquals(apple.size(), api.numberOfWearableDeviceByManufacturer("Apple"));
+        assertEquals(apple, api.query(new WearableDeviceQuery().manufacturer("Apple").priceBetween(30, 30).orderByPriceAscending()));
+
+        // A device without an ID can't be added twice, or deleting one copy would leave the other unindexed
+        WearableDevice unnamed = new SmartBand("Medium", 40, "APPLE", "Silicone", "Band", null, false);
+        assertTrue(api.addWearableDeviceDevice(unnamed));
+        assertFalse(api.addWearableDeviceDevice(unnamed));
+        assertEquals(apple.size() + 1, api.numberOfWearableDeviceByManufacturer("Apple"));
+    }
+
+    @Test
+    void testFilesKeepRegisteredNames(@TempDir File dir) throws Exception {
+        ManufacturerNameUtility.registerManufacturerNames("Shenzhen Wearable Tech Co");
+        DisplayTypeUtility.registerDisplayTypes("OLED");
+        api.addWearableDeviceDevice(new SmartWatch("Small", 40, "Shenzhen Wearable Tech Co", "Plastic", "Watch", "SW1", "OLED"));
+
+        File catalogueFile = new File(dir, "catalogue.bin");
+        api.exportCatalogue(catalogueFile);
+        WearableDevice exported = MappedCatalogue.open(catalogueFile).getWearableDeviceByIndex(0);
+        assertEquals("Shenzhen Wearable Tech Co", exported.getManufacturerName());
+        assertEquals("OLED", ((SmartWatch) exported).getDisplayType());
+
+        WearableDeviceAPI binary = new WearableDeviceAPI(new File(dir, "devices.bin"));
+        binary.setSnapshotFormat(SnapshotFormat.BINARY);
+        binary.addWearableDeviceDevice(api.getWearableDeviceById("SW1"));
+        binary.save();
+        WearableDeviceAPI loaded = new WearableDeviceAPI(new File(dir, "devices.bin"));
+        loaded.setSnapshotFormat(SnapshotFormat.BINARY);
+        loaded.load();
+        assertEquals("OLED", ((SmartWatch) loaded.getWearableDeviceById("SW1")).getDisplayType());
+
+        ManufacturerNameUtility.resetManufacturerNames();
+        DisplayTypeUtility.resetDisplayTypes();
+        assertFalse(ManufacturerNameUtility.isValidManuName("Shenzhen Wearable Tech Co"));
+        assertFalse(DisplayTypeUtility.isValidDisplayType("OLED"));
+        assertTrue(ManufacturerNameUtility.isValidManuName("Whoop"));
+    }
+
+    @Test
+    void testCsvImportRejectsValuesTheModelWouldChange() throws Exception {
+        BulkImportResult result = api.importCsv(new StringReader(String.join("\n",
+                "SmartBand,Medium,30,Apple,Silicone,Band,B1,true",
+                "SmartBand,Medium,30,NoSuchBrand,Silicone,Band,B2,true",
+                "SmartBand,Medium,19.99,Apple,Silicone,Band,B3,true",
+                "SmartBand,Medium,30,Apple,Silicone,Band,B4-TOO-LONG,true",
+                "SmartWatch,Small,40,Apple,Plastic,Watch,W1,Hologram",
+                "SmartWatch,Small,40,Apple,Plastic,Watch,W2,LCD")));
+
+        assertEquals(2, result.getImportedCount());
+        assertEquals(List.of(2, 3, 4, 5), result.getRejects().stream().map(BulkImportResult.Reject::getRow).toList());
+        assertTrue(result.getRejects().get(0).getReason().contains("NoSuchBrand"));
+        assertEquals("Apple", api.getWearableDeviceById("B1").getManufacturerName());
+        assertNull(api.getWearableDeviceById("B2"));
+    }
+
+    @Test
+    void testXmlImportRejectsValuesTheModelWouldChange() throws Exception {
+        String band = "<models.SmartBand><size>Medium</size><price>%s</price><manufacturerName>%s</manufacturerName>"
+                + "<material>Silicone</material><modelName>Band</modelName><id>%s</id><heartRateMonitor>%s</heartRateMonitor></models.SmartBand>";
+        String watch = "<models.SmartWatch><size>Small</size><price>40.0</price><manufacturerName>Apple</manufacturerName>"
+                + "<material>Plastic</material><modelName>Watch</modelName><id>%s</id>%s</models.SmartWatch>";
+        BulkImportResult result = api.importXml(new StringReader("<object-stream><list>"
+                + String.format(band, "30.0", "Apple", "B1", "true")
+                + String.format(band, "30.0", "NoSuchBrand", "B2", "true")
+                + String.format(band, "19.99", "Apple", "B3", "true")
+                + String.format(band, "30.0", "Apple", "B4-TOO-LONG", "true")
+                + String.format(band, "30.0", "Apple", "B5", "maybe")
+                + String.format(band, "NaN", "Apple", "B6", "true")
+                + String.format(watch, "W1", "<displayType>Hologram</displayType>")
+                + String.format(watch, "W2", "")
+                + String.format(watch, "W3", "<displayType>LCD</displayType>")
+                + "</list></object-stream>"));
+
+        assertEquals(2, result.getImportedCount());
+        assertEquals(List.of(2, 3, 4, 5, 6, 7, 8), result.getRejects().stream().map(BulkImportResult.Reject::getRow).toList());
+        assertTrue(result.getRejects().get(0).getReason().contains("NoSuchBrand"));
+        assertNotNull(api.getWearableDeviceById("B1"));
+        assertNotNull(api.getWearableDeviceById("W3"));
+    }
+
+    @Test
+    void testImportsAreAddedChunkByChunkAndMalformedXmlIsUndone() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        StringBuilder xml = new StringBuilder("<object-stream><list>");
+        int devices = ImportBatch.CHUNK_SIZE * 2 + 10;
+        for (int i = 0; i < devices; i++) {
+            // Every 100th line repeats an ID from earlier, often from a chunk that has already been added
+            String id = "C" + (i % 100 == 99 ? i - 50 : i);
+            csv.append("SmartBand,Medium,30,Apple,Silicone,Band,").append(id).append(",false\n");
+            xml.append("<models.SmartBand><size>Medium</size><price>30.0</price><manufacturerName>Apple</manufacturerName>")
+                    .append("<material>Silicone</material><modelName>Band</modelName><id>X").append(i).append("</id></models.SmartBand>");
+        }
+        BulkImportResult result = api.importCsv(new StringReader(csv.toString()));
+        assertEquals(devices - devices / 100, result.getImportedCount());
+        assertEquals(devices / 100, result.getRejectedCount());
+        assertEquals(100, result.getRejects().get(0).getRow());
+        assertEquals("Duplicate ID", result.getRejects().get(0).getReason());
+
+        // The document breaks off after more than one chunk has been added
+        int before = api.numberOfWearableDevices();
+        assertThrows(XMLStreamException.class, () -> api.importXml(new StringReader(xml + "<models.SmartBand><size>")));
+        assertEquals(before, api.numberOfWearableDevices());
+        assertNull(api.getWearableDeviceById("X0"));
+
+        assertEquals(devices, api.importXml(new StringReader(xml + "</list></object-stream>")).getImportedCount());
+        assertEquals(before + devices, api.numberOfWearableDevices());
+    }
+
+    @Test
+    void testJournaledBatchUpdatesSurviveReload(@TempDir File dir) throws Exception {
+        File file = new File(dir, "devices.xml");
+        WearableDeviceAPI journaled = new WearableDeviceAPI(file);
+        journaled.addWearableDeviceDevice(new SmartBand("Medium", 30, "APPLE", "Silicone", "Band", "A", false));
+        journaled.addWearableDeviceDevice(new SmartBand("Medium", 35, "APPLE", "Silicone", "Band", "B", false));
+        journaled.addWearableDeviceDevice(new SmartWatch("Small", 50, "SAMSUNG", "Plastic", "Watch", "C", "LCD"));
+        journaled.save();
+        journaled.enableJournal(0);
+
+        // Swap A and B while raising their prices, then pass C's ID along to a new one
+        journaled.updateWearableDevicesWhere(techDev -> techDev instanceof SmartBand, techDev -> {
+            techDev.setId(techDev.getId().equals("A") ? "B" : "A");
+            techDev.setPriceCents(techDev.getPriceCents() + 1000);
+        });
+        journaled.updateWearableDevicesWhere(techDev -> techDev.getId().equals("C"), techDev -> techDev.setId("D"));
+        journaled.disableJournal();
+        assertEquals(40.0, journaled.getWearableDeviceById("B").getPrice());
+
+        WearableDeviceAPI reloaded = new WearableDeviceAPI(file);
+        reloaded.load();
+        assertEquals(journaled.listAllWearableDevices(), reloaded.listAllWearableDevices());
+        assertEquals(40.0, reloaded.getWearableDeviceById("B").getPrice());
+        assertEquals(45.0, reloaded.getWearableDeviceById("A").getPrice());
+        assertNull(reloaded.getWearableDeviceById("C"));
+    }
+
+    @Test
+    void testWritesFinishWhileAJournaledSaveIsWriting(@TempDir File dir) throws Exception {
+        File file = new File(dir, "devices.xml");
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch finishWriting = new CountDownLatch(1);
+        ConcurrentWearableDeviceAPI slow = new ConcurrentWearableDeviceAPI(file) {
+            @Override
+            void writeSnapshot(CatalogueSnapshot snapshot, File target) throws Exception {
+                writing.countDown();
+                finishWriting.await();
+                super.writeSnapshot(snapshot, target);
+            }
+        };
+        slow.enableJournal(0);
+        slow.addWearableDeviceDevice(new SmartBand("Medium", 30, "APPLE", "Silicone", "Band", "A", false));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> save = executor.submit(() -> {
+                slow.save();
+                return null;
+            });
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+            Future<Boolean> add = executor.submit(() ->
+                    slow.addWearableDeviceDevice(new SmartBand("Medium", 35, "APPLE", "Silicone", "Band", "B", false)));
+            assertTrue(add.get(5, TimeUnit.SECONDS));
+            finishWriting.countDown();
+            save.get(5, TimeUnit.SECONDS);
+        } finally {
+            finishWriting.countDown();
+            executor.shutdownNow();
+        }
+        slow.disableJournal();
+
+        // A is in the snapshot and B only in the journal opened while it was written
+        WearableDeviceAPI reloaded = new WearableDeviceAPI(file);
+        reloaded.load();
+        assertEquals(slow.listAllWearableDevices(), reloaded.listAllWearableDevices());
+        assertEquals(2, reloaded.numberOfWearableDevices());
+    }
+
+    @Test
+    void testJournaledChangesSurviveAFailedSave(@TempDir File dir) throws Exception {
+        File file = new File(dir, "devices.xml");
+        AtomicBoolean failWrites = new AtomicBoolean();
+        WearableDeviceAPI failing = new WearableDeviceAPI(file) {
+            @Override
+            void writeSnapshot(CatalogueSnapshot snapshot, File target) throws Exception {
+                if (failWrites.get()) {
+                    throw new IOException("Disk full");
+                }
+                super.writeSnapshot(snapshot, target);
+            }
+        };
+        failing.addWearableDeviceDevice(new SmartBand("Medium", 30, "APPLE", "Silicone", "Band", "A", false));
+        failing.save();
+        failing.enableJournal(0);
+        failing.addWearableDeviceDevice(new SmartBand("Medium", 35, "APPLE", "Silicone", "Band", "B", false));
+        failWrites.set(true);
+        assertThrows(IOException.class, failing::save);
+        failing.deleteWearableDeviceById("A");
+        assertThrows(IOException.class, failing::save);
+        failing.addWearableDeviceDevice(new SmartBand("Medium", 40, "APPLE", "Silicone", "Band", "C", false));
+        failing.disableJournal();
+
+        // Both rotated segments and the journal are replayed, in order
+        WearableDeviceAPI reloaded = new WearableDeviceAPI(file);
+        reloaded.load();
+        assertEquals(failing.listAllWearableDevices(), reloaded.listAllWearableDevices());
+        assertNull(reloaded.getWearableDeviceById("A"));
+
+        // A save that succeeds folds them all into the file
+        reloaded.save();
+        WearableDeviceAPI saved = new WearableDeviceAPI(file);
+        saved.load();
+        assertEquals(failing.listAllWearableDevices(), saved.listAllWearableDevices());
+        assertArrayEquals(new String[]{"devices.xml"}, dir.list());
+    }
+
+    @Test
+    void testJournalReplaysOverEverySnapshotFormat(@TempDir File dir) throws Exception {
+        for (SnapshotFormat format : SnapshotFormat.values()) {
+            File file = new File(dir, "devices." + format);
+            WearableDeviceAPI journaled = new WearableDeviceAPI(file);
+            journaled.setSnapshotFormat(format);
+            journaled.addWearableDeviceDevice(new SmartBand("Medium", 30, "APPLE", "Silicone", "Band", "A", true));
+            journaled.addWearableDeviceDevice(new SmartWatch("Small", 50, "SAMSUNG", "Plastic", "Watch", "B", "LCD"));
+            journaled.save();
+            journaled.enableJournal(0);
+            journaled.addWearableDeviceDevice(new SmartWatch("Large", 70.25, "GARMIN", "Steel", "Watch 2", "C", "AMOLED"));
+            journaled.updateSmartWatch("B", new SmartWatch("Small", 55, "SAMSUNG", "Plastic", "Watch", "B", "OLED"));
+            journaled.deleteWearableDeviceById("A");
+            journaled.sortByPriceDescending();
+            journaled.disableJournal();
+
+            WearableDeviceAPI reloaded = new WearableDeviceAPI(file);
+            reloaded.load();
+            assertEquals(journaled.listAllWearableDevices(), reloaded.listAllWearableDevices(), format.toString());
+            assertEquals("C", reloaded.getWearableDeviceByIndex(0).getId());
+
+            // The mapped catalogue is exported from the replayed list and reads back the same devices
+            File catalogueFile = new File(dir, "devices." + format + ".catalogue");
+            reloaded.exportCatalogue(catalogueFile);
+            MappedCatalogue catalogue = MappedCatalogue.open(catalogueFile);
+            assertEquals(reloaded.numberOfWearableDevices(), catalogue.numberOfWearableDevices());
+            for (int i = 0; i < reloaded.numberOfWearableDevices(); i++) {
+                assertEquals(reloaded.getWearableDeviceByIndex(i).toString(), catalogue.getWearableDeviceByIndex(i).toString());
+            }
+        }
+    }
+
+    @Test
+    void testJournalIgnoresATornOrCorruptLastEntry(@TempDir File dir) throws Exception {
+        File file = new File(dir, "devices.xml");
+        File journalFile = new File(dir, "devices.xml.journal");
+        WearableDeviceAPI journaled = new WearableDeviceAPI(file);
+        journaled.save();
+        journaled.enableJournal(0);
+        journaled.addWearableDeviceDevice(new SmartBand("Medium", 30, "APPLE", "Silicone", "Band", "A", true));
+        long firstEntryEnd = journalFile.length();
+        journaled.addWearableDeviceDevice(new SmartBand("Medium", 35, "APPLE", "Silicone", "Band", "B", true));
+        journaled.disableJournal();
+        byte[] entries = Files.readAllBytes(journalFile.toPath());
+
+        // A crash part way through writing the last entry
+        Files.write(journalFile.toPath(), Arrays.copyOf(entries, entries.length - 3));
+        WearableDeviceAPI reloaded = new WearableDeviceAPI(file);
+        reloaded.load();
+        assertEquals(1, reloaded.numberOfWearableDevices());
+
+        // A last entry of the right length whose bytes didn't all reach the disk fails its CRC
+        byte[] corrupt = entries.clone();
+        corrupt[corrupt.length - 2] ^= 0x55;
+        Files.write(journalFile.toPath(), corrupt);
+        reloaded = new WearableDeviceAPI(file);
+        reloaded.load();
+        assertEquals(1, reloaded.numberOfWearableDevices());
+        assertNull(reloaded.getWearableDeviceById("B"));
+
+        // Reopening the journal cuts the bad entry off, so entries written after it are replayed
+        reloaded.enableJournal(0);
+        assertEquals(firstEntryEnd, journalFile.length());
+        reloaded.addWearableDeviceDevice(new SmartBand("Medium", 40, "APPLE", "Silicone", "Band", "C", true));
+        reloaded.disableJournal();
+        WearableDeviceAPI again = new WearableDeviceAPI(file);
+        again.load();
+        assertEquals(reloaded.listAllWearableDevices(), again.listAllWearableDevices());
+        assertNotNull(again.getWearableDeviceById("C"));
+    }
+
+    @Test
+    void testJournaledShardedSavesLeaveOnlyTheCurrentShards(@TempDir File dir) throws Exception {
+        File file = new File(dir, "devices.bin");
+        WearableDeviceAPI sharded = new WearableDeviceAPI(file);
+        sharded.setSnapshotFormat(SnapshotFormat.SHARDED);
+        sharded.setShardCount(3);
+        for (int i = 0; i < 10; i++) {
+            sharded.addWearableDeviceDevice(new SmartBand("Medium", 30 + i, "APPLE", "Silicone", "Band", "B" + i, false));
+        }
+        sharded.save();
+        sharded.enableJournal(0);
+        for (int i = 10; i < 20; i++) {
+            sharded.addWearableDeviceDevice(new SmartBand("Medium", 30 + i, "APPLE", "Silicone", "Band", "B" + i, false));
+            // Each save rotates the journal and replaces the manifest along with the shards it named
+            sharded.save();
+        }
+        sharded.deleteWearableDeviceById("B3");
+        sharded.disableJournal();
+
+        String[] shards = dir.list((d, name) -> name.contains(".shard"));
+        assertEquals(3, shards.length, String.join(", ", shards));
+        WearableDeviceAPI reloaded = new WearableDeviceAPI(file);
+        reloaded.load();
+        assertEquals(sharded.listAllWearableDevices(), reloaded.listAllWearableDevices());
+        assertEquals(19, reloaded.numberOfWearableDevices());
+    }
+
+    @Test
+    void testCursorPagesCarryOnPastDeletedCursorsAndEmptyPages() {
+        for (int i = 0; i < 10; i++) {
+            api.addWearableDeviceDevice(new SmartBand("Medium", 30, "APPLE", "Silicone", "Band", "ID" + i, false));
+        }
+
+        // An empty first page still says there is more, and its cursor starts the walk from the beginning
+        DevicePage empty = api.pageAfter(null, 0);
+        assertTrue(empty.getWearableDevices().isEmpty());
+        assertTrue(empty.hasMore());
+        DevicePage first = api.pageAfter(empty.getNextCursor(), 4);
+        assertEquals("ID0", first.getWearableDevices().get(0).getId());
+        assertEquals("ID3", first.getNextCursor());
+
+        // An empty page later on keeps the cursor it was given
+        DevicePage stalled = api.pageAfter(first.getNextCursor(), -1);
+        assertTrue(stalled.hasMore());
+        assertEquals("ID3", stalled.getNextCursor());
+
+        // The cursor device is deleted before the next page is fetched
+        api.deleteWearableDeviceById("ID3");
+        DevicePage second = api.pageAfter(stalled.getNextCursor(), 4);
+        assertEquals("ID4", second.getWearableDevices().get(0).getId());
+        assertEquals("ID7", second.getNextCursor());
+        api.deleteWearableDeviceById("ID7");
+        DevicePage last = api.pageAfter(second.getNextCursor(), 4);
+        assertEquals(List.of("ID8", "ID9"), last.getWearableDevices().stream().map(WearableDevice::getId).toList());
+        assertFalse(last.hasMore());
+        assertNull(last.getNextCursor());
+        assertFalse(api.pageAfter(last.getWearableDevices().get(1).getId(), 0).hasMore());
+    }
+
+    @Test
+    void testAveragesPastWhatALongCanTotal() {
+        double highest = Utilities.MAX_CENTS / 100.0;
+        List<WearableDevice> devices = new ArrayList<>();
+        int count = (int) (Long.MAX_VALUE / Utilities.MAX_CENTS) + 10;
+        for (int i = 0; i < count; i++) {
+            devices.add(new SmartBand("Medium", highest, "APPLE", "Silicone", "Band", "P" + i, false));
+        }
+        devices.add(new SmartBand("Medium", 30, "SAMSUNG", "Silicone", "Band", "S", false));
+        assertEquals(count + 1, api.addAll(devices).getImportedCount());
+        assertEquals(highest, api.averagePriceByManufacturer("Apple"));
+        assertEquals((highest * count + 30) / (count + 1), api.averagePrice(), highest * 1e-12);
+
+        // Scans return rows, which are looked up in the list as it is after the deletes
+        api.deleteWearableDeviceById("P0");
+        api.deleteWearableDeviceById("P5");
+        assertTrue(api.listAllWearableDeviceBelowPrice(31).startsWith((count - 2) + ": "));
+        assertTrue(api.listAllWearableDeviceBelowPrice(31).contains(" S"));
+    }
+
+    @Test
+    void testSubstringSearchesHandleShortTermsAndMissingValues() {
+        api.addWearableDeviceDevice(new SmartBand("Medium", 30, "APPLE", "Silicone", "Band", "A", false));
+        api.addWearableDeviceDevice(new SmartBand("XL", 30, "APPLE", "Steel", "Band", "B", false));
+        api.addWearableDeviceDevice(new SmartWatch("Small", 30, "SAMSUNG", null, null, "C", "LCD"));
+        api.addWearableDeviceDevice(new SmartWatch(null, 30, "SAMSUNG", "Leather", "Watch", "D", "LCD"));
+        String[] terms = {"", "l", "L", "xl", "sm", "Med", "mediu", "ee", "leather", "x", "Zz"};
+        for (String term : terms) {
+            // Queries with a text condition take their candidates from the substring index
+            WearableDeviceQuery bySize = new WearableDeviceQuery().size(term);
+            WearableDeviceQuery byMaterial = new WearableDeviceQuery().material(term);
+            List<String> sizeMatches = new ArrayList<>();
+            List<String> materialMatches = new ArrayList<>();
+            for (WearableDevice techDev : api.query(new WearableDeviceQuery())) {
+                if (techDev.getSize() != null && techDev.getSize().toUpperCase().contains(term.toUpperCase())) {
+                    sizeMatches.add(techDev.getId());
+                }
+                if (techDev.getMaterial() != null && techDev.getMaterial().toUpperCase().contains(term.toUpperCase())) {
+                    materialMatches.add(techDev.getId());
+                }
+            }
+            // Without an order the results come in the index's order, so only the IDs are compared
+            assertEquals(sizeMatches, api.query(bySize).stream().map(WearableDevice::getId).sorted().toList(), term);
+            assertEquals(materialMatches, api.query(byMaterial).stream().map(WearableDevice::getId).sorted().toList(), term);
+        }
+
+        // Devices without the field never match, whether the candidates come from the substring index or not
+        assertEquals("No WearableDevices match your search", api.searchBySize(null));
+        assertEquals(List.of("C"), api.query(new WearableDeviceQuery().manufacturer("Samsung").size(""))
+                .stream().map(WearableDevice::getId).toList());
+        assertEquals(List.of("D"), api.query(new WearableDeviceQuery().manufacturer("Samsung").material(""))
+                .stream().map(WearableDevice::getId).toList());
+        assertEquals(List.of("C", "D"), api.query(new WearableDeviceQuery().manufacturer("Samsung").size("s").size(null))
+                .stream().map(WearableDevice::getId).sorted().toList());
+    }
+}
@@ -4,6 +4,8 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.Locale;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class WearableDeviceTest {
@@ -102,6 +104,20 @@ class WearableDeviceTest {
 
 
 
+    @Test
+    void testRepeatedValuesShareOneInstance() {
+        // new String() makes sure the two devices are given different instances of each value
+        WearableDevice otherDevice = new SmartBand(new String("Medium"), 40.0, new String("SAMSUNG"), new String("Silicone"), "OtherModel", "SB654321", false);
+        assertSame(goodDevice.getSize(), otherDevice.getSize());
+        assertSame(goodDevice.getManufacturerName(), otherDevice.getManufacturerName());
+        assertSame(goodDevice.getMaterial(), otherDevice.getMaterial());
+
+        otherDevice.setMaterial(new String("Leather"));
+        goodDevice.setMaterial(new String("Leather"));
+        assertSame(goodDevice.getMaterial(), otherDevice.getMaterial());
+        assertEquals("Leather", otherDevice.getMaterial());
+    }
+
     @Test
     void testGoodDeviceToString() {
         assertTrue(goodDevice.toString().contains("SmartBandModel"));
@@ -118,4 +134,44 @@ class WearableDeviceTest {
         assertTrue(badDevice.toString().contains("Medium1234"));
         assertTrue(badDevice.toString().contains("Silicone123456789012"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testToStringFollowsSetters() {
+        assertTrue(goodDevice.toString().contains(String.format("%.2f", 30.0)));
+        goodDevice.setPrice(45.675);
+        goodDevice.setModelName("RenamedModel");
+        assertTrue(goodDevice.toString().contains(String.format("%.2f", 45.675)));
+        assertTrue(goodDevice.toString().contains(String.format("%.2f", goodDevice.getInsurancePremium())));
+        assertTrue(goodDevice.toString().contains("RenamedModel"));
+        assertFalse(goodDevice.toString().contains("SmartBandModel"));
+    }
+
+    @Test
+    void testToStringFollowsTheDefaultLocale() {
+        Locale original = Locale.getDefault(Locale.Category.FORMAT);
+        try {
+            Locale.setDefault(Locale.Category.FORMAT, Locale.UK);
+            assertTrue(goodDevice.toString().contains("€30.00"));
+            // The cached description was rendered for the UK, so it is rendered again for a comma decimal separator
+            Locale.setDefault(Locale.Category.FORMAT, Locale.GERMANY);
+            assertTrue(goodDevice.toString().contains("€30,00"));
+            assertTrue(goodDevice.toString().contains("Insurance: €" + String.format("%.2f", goodDevice.getInsurancePremium())));
+        } finally {
+            Locale.setDefault(Locale.Category.FORMAT, original);
+        }
+    }
+
+    @Test
+    void testPriceIsHeldInCents() {
+        assertEquals(3000, goodDevice.getPriceCents());
+        goodDevice.setPrice(45.675); // Rounded half up, as String.format shows it
+        assertEquals(4568, goodDevice.getPriceCents());
+        assertEquals(45.68, goodDevice.getPrice());
+        assertEquals(319, goodDevice.getInsurancePremiumCents());
+
+        goodDevice.setPriceCents(3_000_000_010L); // Large enough to overflow an int number of cents
+        assertEquals(210_000_000L, goodDevice.getInsurancePremiumCents());
+        goodDevice.setPriceCents(1999); // Should not update as it's below the minimum
+        assertEquals(3_000_000_010L, goodDevice.getPriceCents());
+    }
+}